@@ -0,0 +1,193 @@
+package util;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+
+/**
+ * Formats arrays as "{1, 2, 3}" in a single pass, straight into a StringBuilder or any Appendable
+ * (a Writer, a log sink...). Every primitive array type is handled without boxing, arrays nested in
+ * an Object[] are formatted in turn, and booleans print as T and F. An empty array prints as "{ }".
+ * <p>
+ * A format can keep only the first and last few elements of long arrays, as in
+ * "{1, 2, ... 996 more, 99, 100}", which applies at every level of nesting.
+ * When writing to something other than a StringBuilder, text is gathered in a small buffer and
+ * handed over in chunks, so huge arrays never have to be held as one string. A format is only its
+ * head and tail counts, and each call writes to its own builder or buffer, so {@link #FULL} and
+ * the rest can be shared between threads.
+ */
+public class ArrayFormat
+{
+  /** Prints every element. */
+  public static final ArrayFormat FULL = new ArrayFormat(Integer.MAX_VALUE, 0);
+
+  private static final int FLUSH_CHARS = 1 << 13;
+  private static final int BLOCK = 256; // elements between checks for a full buffer
+
+  private final int head;
+  private final int tail;
+
+  /**
+   * @param head Elements to print from the start of an array.
+   * @param tail Elements to print from the end of an array, when not all of it fits in head + tail.
+   */
+  public ArrayFormat(int head, int tail)
+  {
+    if (head < 0 || tail < 0)
+      throw new IllegalArgumentException("Can not print " + head + " and " + tail + " elements!");
+    this.head = head;
+    this.tail = tail;
+  }
+
+  /**
+   * @param array An array of any type, or null.
+   * @return the array as a string.
+   */
+  public String toString(Object array)
+  {
+    return append(new StringBuilder(), array).toString();
+  }
+
+  /**
+   * Appends an array to out.
+   *
+   * @param array An array of any type, or null.
+   * @return out
+   */
+  public StringBuilder append(StringBuilder out, Object array)
+  {
+    try
+    {
+      format(out, null, array);
+    }
+    catch (IOException e)
+    {
+      throw new AssertionError(e); // Nothing but the StringBuilder is written to
+    }
+    return out;
+  }
+
+  /**
+   * Writes an array to out.
+   *
+   * @param array An array of any type, or null.
+   */
+  public void append(Appendable out, Object array) throws IOException
+  {
+    if (out instanceof StringBuilder)
+    {
+      append((StringBuilder) out, array);
+      return;
+    }
+    StringBuilder buf = new StringBuilder(FLUSH_CHARS + 64);
+    format(buf, out, array);
+    out.append(buf);
+  }
+
+  // Writes to buf, handing it over to sink (if there is one) whenever it fills up
+  private void format(StringBuilder buf, Appendable sink, Object array) throws IOException
+  {
+    if (array == null)
+    {
+      buf.append("null");
+      return;
+    }
+    if (!array.getClass().isArray())
+      throw new IllegalArgumentException(array.getClass().getName() + " is not an array!");
+    int length = Array.getLength(array);
+    if (length == 0)
+    {
+      buf.append("{ }");
+      return;
+    }
+    buf.append('{');
+    if (length <= head || length - head <= tail)
+      elements(buf, sink, array, 0, length);
+    else
+    {
+      elements(buf, sink, array, 0, head);
+      if (head > 0)
+        buf.append(", ");
+      buf.append("... ").append(length - head - tail).append(" more");
+      elements(buf, sink, array, length - tail, length);
+    }
+    buf.append('}');
+  }
+
+  private void elements(StringBuilder buf, Appendable sink, Object array, int from, int to) throws IOException
+  {
+    for (int start = from; start < to; start += BLOCK)
+    {
+      int end = Math.min(to, start + BLOCK);
+      if (array instanceof int[])
+      {
+        int[] a = (int[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i]);
+      }
+      else if (array instanceof long[])
+      {
+        long[] a = (long[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i]);
+      }
+      else if (array instanceof double[])
+      {
+        double[] a = (double[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i]);
+      }
+      else if (array instanceof float[])
+      {
+        float[] a = (float[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i]);
+      }
+      else if (array instanceof short[])
+      {
+        short[] a = (short[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i]);
+      }
+      else if (array instanceof byte[])
+      {
+        byte[] a = (byte[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i]);
+      }
+      else if (array instanceof char[])
+      {
+        char[] a = (char[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i]);
+      }
+      else if (array instanceof boolean[])
+      {
+        boolean[] a = (boolean[]) array;
+        for (int i = start; i < end; i++)
+          separate(buf, i).append(a[i] ? 'T' : 'F');
+      }
+      else
+      {
+        Object[] a = (Object[]) array;
+        for (int i = start; i < end; i++)
+        {
+          separate(buf, i);
+          if (a[i] != null && a[i].getClass().isArray())
+            format(buf, sink, a[i]);
+          else
+            buf.append(a[i]);
+        }
+      }
+      if (sink != null && buf.length() >= FLUSH_CHARS)
+      {
+        sink.append(buf);
+        buf.setLength(0);
+      }
+    }
+  }
+
+  private static StringBuilder separate(StringBuilder buf, int index)
+  {
+    return index == 0 ? buf : buf.append(", ");
+  }
+}
@@ -0,0 +1,131 @@
+package util;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * Several arrays of one primitive type, read as a single indexed sequence without copying them.
+ * The view holds the arrays themselves, so later writes to them show through. Finding the part
+ * that holds an index is a binary search over the parts' start indexes; {@link #copyTo} moves
+ * whole parts with System.arraycopy.
+ * Reading with the getter that does not match the element type throws ClassCastException.
+ */
+public class ArrayView
+{
+  private final Object[] parts;
+  private final int[] starts; // starts[i] is the view index of parts[i][0]; starts[parts.length] is the length
+
+  private ArrayView(Object[] parts)
+  {
+    this.parts = parts.clone();
+    starts = new int[parts.length + 1];
+    long total = 0;
+    for (int i = 0; i < parts.length; i++)
+    {
+      starts[i] = (int) total;
+      total += Array.getLength(parts[i]);
+      if (total > Integer.MAX_VALUE)
+        throw new IllegalArgumentException("A view can not hold more than " + Integer.MAX_VALUE + " elements!");
+    }
+    starts[parts.length] = (int) total;
+  }
+
+  public static ArrayView of(int[]... parts)
+  {
+    return new ArrayView(parts);
+  }
+
+  public static ArrayView of(long[]... parts)
+  {
+    return new ArrayView(parts);
+  }
+
+  public static ArrayView of(char[]... parts)
+  {
+    return new ArrayView(parts);
+  }
+
+  public static ArrayView of(byte[]... parts)
+  {
+    return new ArrayView(parts);
+  }
+
+  public static ArrayView of(double[]... parts)
+  {
+    return new ArrayView(parts);
+  }
+
+  public int length()
+  {
+    return starts[parts.length];
+  }
+
+  public int getInt(int index)
+  {
+    int part = partOf(index);
+    return ((int[]) parts[part])[index - starts[part]];
+  }
+
+  public long getLong(int index)
+  {
+    int part = partOf(index);
+    return ((long[]) parts[part])[index - starts[part]];
+  }
+
+  public char getChar(int index)
+  {
+    int part = partOf(index);
+    return ((char[]) parts[part])[index - starts[part]];
+  }
+
+  public byte getByte(int index)
+  {
+    int part = partOf(index);
+    return ((byte[]) parts[part])[index - starts[part]];
+  }
+
+  public double getDouble(int index)
+  {
+    int part = partOf(index);
+    return ((double[]) parts[part])[index - starts[part]];
+  }
+
+  /**
+   * Copies view[from, to) into dst, an array of the view's element type, from dstOff.
+   */
+  public void copyTo(int from, int to, Object dst, int dstOff)
+  {
+    if (from < 0 || to > length() || from > to)
+      throw new IndexOutOfBoundsException("[" + from + ", " + to + ") is not within a view of " + length() + "!");
+    for (int part = from < to ? partOf(from) : parts.length; part < parts.length && starts[part] < to; part++)
+    {
+      int start = Math.max(from, starts[part]);
+      int end = Math.min(to, starts[part + 1]);
+      System.arraycopy(parts[part], start - starts[part], dst, dstOff + start - from, end - start);
+    }
+  }
+
+  /**
+   * @return a new array of the view's element type holding every element.
+   */
+  public Object toArray()
+  {
+    Object ret = Array.newInstance(parts.getClass().getComponentType().getComponentType(), length());
+    copyTo(0, length(), ret, 0);
+    return ret;
+  }
+
+  // Index of the last part starting at or before index, skipping empty parts
+  private int partOf(int index)
+  {
+    if (index < 0 || index >= length())
+      throw new IndexOutOfBoundsException(index + " is not within a view of " + length() + "!");
+    int part = Arrays.binarySearch(starts, 0, parts.length, index);
+    if (part < 0)
+      return -part - 2;
+    // Empty parts share their start with the next one
+    while (starts[part + 1] == index)
+      part++;
+    return part;
+  }
+}
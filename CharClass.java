@@ -0,0 +1,249 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * A set of characters, tested with one bit lookup.
+ * <p>
+ * Membership of every char below 256 is tabled in a 256 bit mask when the class is built; chars
+ * above that go to an optional fallback predicate, so a class can cover Unicode without tabling
+ * all of it. Byte buffers are read as ISO-8859-1, one char per byte, so ASCII classes work on
+ * UTF-8 text as well. When the ASCII members form a few ranges, byte scans first test eight bytes
+ * at a time with word arithmetic and only look at the single bytes of words that may hold a member.
+ * The mask never changes once built, so a class, such as {@link #VOWEL}, can be shared between
+ * threads as long as its fallback predicate can.
+ */
+public class CharClass
+{
+  /** The English vowels, either case. */
+  public static final CharClass VOWEL = of("aeiouAEIOU");
+  /** The English letters, either case. */
+  public static final CharClass ALPHA = of(c -> (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'));
+  /** The English letters that are not vowels, either case. */
+  public static final CharClass CONSONANT = of(c -> ALPHA.test((char) c) && !VOWEL.test((char) c));
+  /** Every Unicode letter. */
+  public static final CharClass LETTER = of(Character::isLetter);
+  /** Every Unicode digit. */
+  public static final CharClass DIGIT = of(Character::isDigit);
+  /** Every Unicode white space character. */
+  public static final CharClass WHITESPACE = of(Character::isWhitespace);
+
+  // Word arithmetic handles at most this many ranges of ASCII members
+  private static final int MAX_WORD_RANGES = 5;
+  private static final long CASE_BITS = 0x2020202020202020L;
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+
+  private final long[] latin1 = new long[4];
+  private final IntPredicate fallback; // chars from 256 on; null if there are none
+  private final long[] rangeAbove;     // per ASCII range, the word constants of the range test
+  private final long[] rangeBelow;
+  private final long foldBits;         // CASE_BITS when setting 0x20 in a byte never changes its membership
+  private final boolean highMembers;   // some member is from 128 to 255
+
+  private CharClass(IntPredicate members, IntPredicate fallback)
+  {
+    this.fallback = fallback;
+    for (int c = 0; c < 256; c++)
+      if (members.test(c))
+        latin1[c >>> 6] |= 1L << c;
+    highMembers = (latin1[2] | latin1[3]) != 0;
+
+    // Classes that ignore ASCII case (and so bit 0x20) need only half the ranges
+    boolean caseless = true;
+    for (int c = 0; c < 128; c++)
+      caseless &= test((char) c) == test((char) (c | 0x20));
+    foldBits = caseless ? CASE_BITS : 0;
+
+    int ranges = 0;
+    long[] above = new long[MAX_WORD_RANGES];
+    long[] below = new long[MAX_WORD_RANGES];
+    for (int c = 0; c < 128 && ranges <= MAX_WORD_RANGES; )
+    {
+      if (!inRange(c))
+      {
+        c++;
+        continue;
+      }
+      int lo = c;
+      while (c < 128 && inRange(c))
+        c++;
+      if (ranges < MAX_WORD_RANGES)
+      {
+        // Bytes strictly between lo - 1 and c
+        above[ranges] = ONES * (127 + c);
+        below[ranges] = ONES * (127 - (lo - 1));
+      }
+      ranges++;
+    }
+    if (ranges <= MAX_WORD_RANGES)
+    {
+      rangeAbove = Arrays.copyOf(above, ranges);
+      rangeBelow = Arrays.copyOf(below, ranges);
+    }
+    else
+      rangeAbove = rangeBelow = null;
+  }
+
+  // Membership of an ASCII byte after folding
+  private boolean inRange(int c)
+  {
+    return (c | (int) foldBits & 0x20) == c && test((char) c);
+  }
+
+  /**
+   * @param members Every char in the class.
+   */
+  public static CharClass of(String members)
+  {
+    return new CharClass(c -> members.indexOf(c) >= 0, members.chars().anyMatch(c -> c >= 256) ? c -> members.indexOf(c) >= 0 : null);
+  }
+
+  /**
+   * Builds a class from a predicate, which is called for chars from 256 on at every test.
+   *
+   * @param members Returns if a char is in the class.
+   */
+  public static CharClass of(IntPredicate members)
+  {
+    return new CharClass(members, members);
+  }
+
+  /**
+   * @return if c is in the class.
+   */
+  public boolean test(char c)
+  {
+    if (c < 256)
+      return (latin1[c >>> 6] & (1L << c)) != 0;
+    return fallback != null && fallback.test(c);
+  }
+
+  public boolean contains(CharSequence str)
+  {
+    return indexOf(str, 0) >= 0;
+  }
+
+  /**
+   * @return the index of the first char in the class at or after from, or -1 if there is none.
+   */
+  public int indexOf(CharSequence str, int from)
+  {
+    int len = str.length();
+    for (int i = Math.max(from, 0); i < len; i++)
+      if (test(str.charAt(i)))
+        return i;
+    return -1;
+  }
+
+  /**
+   * @return how many chars of str are in the class.
+   */
+  public int count(CharSequence str)
+  {
+    int ret = 0;
+    int len = str.length();
+    for (int i = 0; i < len; i++)
+      if (test(str.charAt(i)))
+        ret++;
+    return ret;
+  }
+
+  public boolean contains(char[] array, int from, int to)
+  {
+    return indexOf(array, from, to) >= 0;
+  }
+
+  /**
+   * @return the index of the first char in the class within [from, to), or -1 if there is none.
+   */
+  public int indexOf(char[] array, int from, int to)
+  {
+    for (int i = from; i < to; i++)
+      if (test(array[i]))
+        return i;
+    return -1;
+  }
+
+  /**
+   * @return how many chars within [from, to) are in the class.
+   */
+  public int count(char[] array, int from, int to)
+  {
+    int ret = 0;
+    for (int i = from; i < to; i++)
+      if (test(array[i]))
+        ret++;
+    return ret;
+  }
+
+  /**
+   * Checks the bytes from the buffer's position to its limit, without moving the position.
+   */
+  public boolean contains(ByteBuffer buf)
+  {
+    return indexOf(buf) >= 0;
+  }
+
+  /**
+   * Checks the bytes from the buffer's position to its limit, without moving the position.
+   *
+   * @return the buffer index of the first byte in the class, or -1 if there is none.
+   */
+  public int indexOf(ByteBuffer buf)
+  {
+    int i = buf.position();
+    int limit = buf.limit();
+    if (rangeAbove != null)
+      for (; i <= limit - 8; i += 8)
+        if (mayHoldMember(buf.getLong(i)))
+          break;
+    for (; i < limit; i++)
+      if (testByte(buf.get(i)))
+        return i;
+    return -1;
+  }
+
+  /**
+   * Checks the bytes from the buffer's position to its limit, without moving the position.
+   *
+   * @return how many bytes are in the class.
+   */
+  public int count(ByteBuffer buf)
+  {
+    int ret = 0;
+    int i = buf.position();
+    int limit = buf.limit();
+    if (rangeAbove != null)
+      for (; i <= limit - 8; i += 8)
+        if (mayHoldMember(buf.getLong(i)))
+          for (int j = i; j < i + 8; j++)
+            if (testByte(buf.get(j)))
+              ret++;
+    for (; i < limit; i++)
+      if (testByte(buf.get(i)))
+        ret++;
+    return ret;
+  }
+
+  private boolean testByte(byte b)
+  {
+    return (latin1[(b & 0xFF) >>> 6] & (1L << b)) != 0;
+  }
+
+  // False only if none of the eight bytes is a member
+  private boolean mayHoldMember(long word)
+  {
+    if (highMembers && (word & HIGH_BITS) != 0)
+      return true;
+    word |= foldBits;
+    long low = word & (ONES * 127);
+    long hits = 0;
+    // Per byte, the high bit is set when lo - 1 < byte < hi + 1 and the byte is ASCII
+    for (int r = 0; r < rangeAbove.length; r++)
+      hits |= (rangeAbove[r] - low) & ~word & (low + rangeBelow[r]);
+    return (hits & HIGH_BITS) != 0;
+  }
+}
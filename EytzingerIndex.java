@@ -0,0 +1,134 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Search index over a sorted long[], stored in Eytzinger (breadth first) order.
+ * <p>
+ * A plain binary search on a large array touches a new cache line at almost every step, spread
+ * all over the array. Here the root of the implicit search tree sits at index 1 and the children
+ * of node k at 2k and 2k + 1, so the first levels of every search share a few hot cache lines, and
+ * the 2^j descendants j levels below a node are contiguous: the next lines a search needs are
+ * always adjacent ones, which the hardware prefetcher follows. The batched form walks several
+ * keys down the tree at once so their misses overlap.
+ * <p>
+ * Building costs a copy of the values plus an int per value to map tree positions back to indexes
+ * of the sorted array. The index does not see later changes to that array.
+ * <p>
+ * The tree never changes once built, so any number of threads may search one index at once.
+ * A single-key lookup may write one field, a sink for the loads it makes four levels ahead. No
+ * lookup reads that field, so the race on it is harmless, but the index is not strictly immutable.
+ */
+public class EytzingerIndex
+{
+  // Keys searched in lockstep by the batched form
+  private static final int BATCH = 8;
+
+  private final long[] tree;  // tree[1..n] in breadth first order; tree[0] is unused
+  private final int[] ranks;  // ranks[k] is the index in the sorted array of tree[k]; ranks[0] is n
+  private final int n;
+  private final int depth;    // levels in the tree
+  // Written only when a lookup's early loads happen to sum to its key, which keeps the JIT from
+  // dropping those loads without making every lookup write a shared cache line
+  private long touched;
+
+  /**
+   * @param sorted Values in ascending order.
+   */
+  public EytzingerIndex(long[] sorted)
+  {
+    n = sorted.length;
+    if (n > Integer.MAX_VALUE >>> 1) // so 2k + 1 can not overflow
+      throw new IllegalArgumentException("Too many values to index!");
+    tree = new long[n + 1];
+    ranks = new int[n + 1];
+    ranks[0] = n;
+    depth = 32 - Integer.numberOfLeadingZeros(n);
+
+    // In order walk of the implicit tree, without recursion: leftmost node first, then successors
+    int k = 1;
+    for (int i = 0; i < n; i++)
+    {
+      if (i == 0)
+        while (2 * k <= n)
+          k *= 2;
+      tree[k] = sorted[i];
+      ranks[k] = i;
+      if (2 * k + 1 <= n)
+      {
+        k = 2 * k + 1;
+        while (2 * k <= n)
+          k *= 2;
+      }
+      else
+        k >>>= Integer.numberOfTrailingZeros(~k) + 1; // climb while coming from a right child
+    }
+  }
+
+  public int size()
+  {
+    return n;
+  }
+
+  /**
+   * @return the index in the sorted array of the first value that is at least key, or its length if there is none.
+   */
+  public int lowerBound(long key)
+  {
+    int k = descend(key);
+    // The path went right every time after the last left turn; undo those steps and that turn
+    k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+    return ranks[k];
+  }
+
+  /**
+   * @return the index in the sorted array of key, if it is there; otherwise (-(insertion point) - 1).
+   */
+  public int binarySearch(long key)
+  {
+    int k = descend(key);
+    k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+    return k != 0 && tree[k] == key ? ranks[k] : -(ranks[k] + 1);
+  }
+
+  // Walks key down the tree to the first position past the leaves
+  private int descend(long key)
+  {
+    // The 16 descendants of node k four levels down fill the two cache lines from tree[16k];
+    // loading them now, while nothing waits on them, overlaps their miss with the next four steps
+    long sum = 0;
+    int k = 1;
+    while (k <= n)
+    {
+      long ahead = (long) k << 4;
+      sum += tree[(int) Math.min(ahead, n)] + tree[(int) Math.min(ahead + 8, n)];
+      k = 2 * k + (tree[k] < key ? 1 : 0);
+    }
+    if (sum == key)
+      touched = sum;
+    return k;
+  }
+
+  /**
+   * Finds the lower bound of every key at once; out[i] receives lowerBound(keys[i]).
+   */
+  public void lowerBounds(long[] keys, int[] out)
+  {
+    // out[i] holds the node keys[i] has reached while its block is walked, so nothing is allocated
+    for (int start = 0; start < keys.length; start += BATCH)
+    {
+      int end = Math.min(start + BATCH, keys.length);
+      Arrays.fill(out, start, end, 1);
+      // Every path is depth - 1 or depth steps long
+      for (int level = 0; level < depth; level++)
+        for (int i = start; i < end; i++)
+        {
+          int node = out[i];
+          if (node <= n)
+            out[i] = 2 * node + (tree[node] < keys[i] ? 1 : 0);
+        }
+      for (int i = start; i < end; i++)
+        out[i] = ranks[out[i] >>> (Integer.numberOfTrailingZeros(~out[i]) + 1)];
+    }
+  }
+}
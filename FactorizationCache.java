@@ -0,0 +1,149 @@
+package util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded least-recently-used cache of prime factorizations, keyed by the number factored.
+ * Factorizations are held as the sorted long[] returned by {@link Prime#getPrimeFactors(long)}.
+ * The cache evicts its oldest entries whenever it holds more than maxEntries entries or more
+ * than (roughly) maxBytes of heap, and counts hits, misses and evictions for monitoring.
+ */
+public class FactorizationCache
+{
+  // Approximate heap cost of one entry besides its factors: map entry, boxed key and array header
+  private static final int ENTRY_OVERHEAD_BYTES = 40 + 16 + 16;
+
+  private final LinkedHashMap<Long, long[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private int maxEntries;
+  private long maxBytes;
+  private long bytes = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param maxEntries Most factorizations to keep.
+   * @param maxBytes   Most (estimated) heap bytes to spend on them.
+   */
+  public FactorizationCache(int maxEntries, long maxBytes)
+  {
+    setLimits(maxEntries, maxBytes);
+  }
+
+  /**
+   * Changes the size limits, evicting entries right away if the cache is now over them.
+   *
+   * @param maxEntries Most factorizations to keep.
+   * @param maxBytes   Most (estimated) heap bytes to spend on them.
+   */
+  public synchronized void setLimits(int maxEntries, long maxBytes)
+  {
+    if (maxEntries < 0 || maxBytes < 0)
+      throw new IllegalArgumentException("Cache limits can not be negative!");
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  /**
+   * Looks up the factorization of n.
+   *
+   * @return the cached factors of n, or null if they are not cached. The array must not be modified.
+   */
+  public long[] get(long n)
+  {
+    long[] factors;
+    synchronized (this)
+    {
+      factors = entries.get(n);
+    }
+    if (factors == null)
+      misses.increment();
+    else
+      hits.increment();
+    return factors;
+  }
+
+  /**
+   * Stores the factorization of n. The array must not be modified afterwards.
+   */
+  public synchronized void put(long n, long[] factors)
+  {
+    long[] old = entries.put(n, factors);
+    if (old != null)
+      bytes -= entryBytes(old);
+    bytes += entryBytes(factors);
+    evict();
+  }
+
+  public synchronized void clear()
+  {
+    entries.clear();
+    bytes = 0;
+  }
+
+  public synchronized int size()
+  {
+    return entries.size();
+  }
+
+  /**
+   * @return the estimated heap bytes currently used by cached entries.
+   */
+  public synchronized long byteSize()
+  {
+    return bytes;
+  }
+
+  public long getHits()
+  {
+    return hits.sum();
+  }
+
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+
+  public long getEvictions()
+  {
+    return evictions.sum();
+  }
+
+  /**
+   * @return hits / (hits + misses), or 0 before the first lookup.
+   */
+  public double getHitRate()
+  {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  public String toString()
+  {
+    return "FactorizationCache{size=" + size() + ", bytes=" + byteSize() + ", hits=" + getHits()
+        + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "}";
+  }
+
+  // Drops least recently used entries until both limits hold. Must hold the lock.
+  private void evict()
+  {
+    Iterator<Map.Entry<Long, long[]>> it = entries.entrySet().iterator();
+    while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext())
+    {
+      bytes -= entryBytes(it.next().getValue());
+      it.remove();
+      evictions.increment();
+    }
+  }
+
+  private static long entryBytes(long[] factors)
+  {
+    return ENTRY_OVERHEAD_BYTES + 8L * factors.length;
+  }
+}
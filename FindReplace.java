@@ -0,0 +1,368 @@
+package util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replaces every occurrence of any of a set of keys in one left to right pass.
+ * <p>
+ * The keys are compiled into an Aho-Corasick automaton whose transitions are tabled for every
+ * character class the keys use, so each character of the text costs one table lookup however
+ * many keys there are. Where several keys match, the one starting leftmost wins, and of those
+ * the longest. Replaced text is not searched again. With ignoreCase, characters are folded as
+ * they are read (the same rule as {@link String#regionMatches(boolean, int, String, int, int)}),
+ * so the text is never copied to change its case.
+ * <p>
+ * Text is read in chunks and written as soon as no key can still match it, so at most one chunk
+ * plus the longest key is held at a time, whatever the size of the input. The automaton is only
+ * read once built, and each replaceAll call keeps its own chunk buffer, so one compiled set of
+ * keys can be used by several threads at once.
+ */
+public class FindReplace
+{
+  private static final int CHUNK = 1 << 13;
+
+  private final boolean ignoreCase;
+  private final int[] classOf;   // class of every char below its length, after folding; 0 for chars no key uses
+  private final int classes;
+  private final int[] delta;     // delta[node * classes + class] is the next node
+  private final int[] depth;     // length of the text a node stands for
+  private final int[] output;    // longest key ending at a node, or -1
+  private final int[] keyLength;
+  private final String[] replacements;
+  private final int longestKey;
+
+  /**
+   * @param find       The string to find
+   * @param replace    The string to replace it with
+   * @param ignoreCase If the case of the text should be ignored in the search.
+   */
+  public FindReplace(String find, String replace, boolean ignoreCase)
+  {
+    this(singleton(find, replace), ignoreCase);
+  }
+
+  /**
+   * @param replacements Maps each string to find to the string to replace it with.
+   *                     When keys collide after case folding, the first one in iteration order is used.
+   * @param ignoreCase   If the case of the text should be ignored in the search.
+   */
+  public FindReplace(Map<String, String> replacements, boolean ignoreCase)
+  {
+    if (replacements.isEmpty())
+      throw new IllegalArgumentException("There must be at least one string to find!");
+    this.ignoreCase = ignoreCase;
+    int keys = replacements.size();
+    String[] find = new String[keys];
+    this.replacements = new String[keys];
+    keyLength = new int[keys];
+
+    // Number the characters the keys use; everything else shares class 0
+    HashMap<Character, Integer> classIds = new HashMap<>();
+    int maxChar = 0;
+    int nodes = 1;
+    int longest = 0;
+    int k = 0;
+    for (Map.Entry<String, String> entry : replacements.entrySet())
+    {
+      String key = entry.getKey();
+      if (key == null || key.isEmpty() || entry.getValue() == null)
+        throw new IllegalArgumentException("Can not replace \"" + key + "\" with \"" + entry.getValue() + "\"!");
+      find[k] = key;
+      this.replacements[k] = entry.getValue();
+      keyLength[k] = key.length();
+      for (int i = 0; i < key.length(); i++)
+      {
+        char c = fold(key.charAt(i));
+        if (classIds.putIfAbsent(c, classIds.size() + 1) == null)
+          maxChar = Math.max(maxChar, c);
+      }
+      nodes += key.length();
+      longest = Math.max(longest, key.length());
+      k++;
+    }
+    longestKey = longest;
+    classes = classIds.size() + 1;
+    classOf = new int[maxChar + 1];
+    for (int c = 0; c <= maxChar; c++)
+    {
+      Integer id = classIds.get(fold((char) c));
+      classOf[c] = id == null ? 0 : id;
+    }
+
+    // Trie of the keys; a transition to node 0 means there is no child
+    int[] delta = new int[nodes * classes];
+    int[] depth = new int[nodes];
+    int[] output = new int[nodes];
+    Arrays.fill(output, -1);
+    int created = 1;
+    for (k = 0; k < keys; k++)
+    {
+      int node = 0;
+      for (int i = 0; i < find[k].length(); i++)
+      {
+        int slot = node * classes + classOf(find[k].charAt(i));
+        if (delta[slot] == 0)
+        {
+          depth[created] = depth[node] + 1;
+          delta[slot] = created++;
+        }
+        node = delta[slot];
+      }
+      if (output[node] < 0)
+        output[node] = k;
+    }
+
+    // Breadth first, fill in failure transitions so every node has a move for every class
+    int[] fail = new int[created];
+    int[] queue = new int[created];
+    int head = 0;
+    int tail = 0;
+    for (int c = 0; c < classes; c++)
+      if (delta[c] != 0)
+        queue[tail++] = delta[c];
+    while (head < tail)
+    {
+      int node = queue[head++];
+      if (output[node] < 0)
+        output[node] = output[fail[node]];
+      for (int c = 0; c < classes; c++)
+      {
+        int slot = node * classes + c;
+        int fallback = delta[fail[node] * classes + c];
+        if (delta[slot] == 0)
+          delta[slot] = fallback;
+        else
+        {
+          fail[delta[slot]] = fallback;
+          queue[tail++] = delta[slot];
+        }
+      }
+    }
+    this.delta = created == nodes ? delta : Arrays.copyOf(delta, created * classes);
+    this.depth = depth;
+    this.output = output;
+  }
+
+  /**
+   * @return the text with every key replaced.
+   */
+  public String replaceAll(CharSequence text)
+  {
+    StringBuilder out = new StringBuilder(text.length());
+    replaceAll(text, out);
+    return out.toString();
+  }
+
+  /**
+   * Appends the text, with every key replaced, to out.
+   *
+   * @return the number of replacements made.
+   */
+  public long replaceAll(CharSequence text, StringBuilder out)
+  {
+    try
+    {
+      return run(chunksOf(text), new BuilderWriter(out));
+    }
+    catch (IOException e)
+    {
+      throw new AssertionError(e); // Neither end does any I/O
+    }
+  }
+
+  /**
+   * Writes the text, with every key replaced, to out.
+   *
+   * @return the number of replacements made.
+   */
+  public long replaceAll(CharSequence text, Writer out) throws IOException
+  {
+    return run(chunksOf(text), out);
+  }
+
+  /**
+   * Streams everything left in a reader to a writer, replacing every key along the way.
+   * Neither stream is closed.
+   *
+   * @return the number of replacements made.
+   */
+  public long replaceAll(Reader in, Writer out) throws IOException
+  {
+    return run(in::read, out);
+  }
+
+  private long run(Chunks in, Writer out) throws IOException
+  {
+    char[] buf = new char[CHUNK + longestKey];
+    int filled = 0;
+    int pos = 0;         // next char to feed the automaton
+    int emitted = 0;     // everything before this has been written
+    int node = 0;
+    int matchStart = -1; // best match so far, not yet written
+    int matchEnd = 0;
+    int matchKey = 0;
+    long count = 0;
+    while (true)
+    {
+      int read = in.read(buf, filled, buf.length - filled);
+      boolean last = read < 0;
+      if (!last)
+        filled += read;
+
+      while (true)
+      {
+        if (pos == filled)
+        {
+          if (!last || matchStart < 0)
+            break;
+        }
+        else
+        {
+          char c = buf[pos++];
+          node = delta[node * classes + classOf(c)];
+          int key = output[node];
+          if (key >= 0)
+          {
+            int start = pos - keyLength[key];
+            // Leftmost first; at the same start a later end is a longer key
+            if (matchStart < 0 || start <= matchStart)
+            {
+              matchStart = start;
+              matchEnd = pos;
+              matchKey = key;
+            }
+          }
+          // Keep going while a longer or further left key could still match
+          if (matchStart < 0 || pos - depth[node] <= matchStart)
+            continue;
+        }
+        out.write(buf, emitted, matchStart - emitted);
+        out.write(replacements[matchKey]);
+        count++;
+        emitted = pos = matchEnd;
+        node = 0;
+        matchStart = -1;
+      }
+
+      if (last)
+      {
+        out.write(buf, emitted, filled - emitted);
+        return count;
+      }
+      // Write what no key can reach any more and move the rest to the front.
+      // A pending match never starts before the text the current node stands for.
+      int keep = pos - depth[node];
+      out.write(buf, emitted, keep - emitted);
+      System.arraycopy(buf, keep, buf, 0, filled - keep);
+      filled -= keep;
+      pos -= keep;
+      emitted = 0;
+      if (matchStart >= 0)
+      {
+        matchStart -= keep;
+        matchEnd -= keep;
+      }
+    }
+  }
+
+  private int classOf(char c)
+  {
+    if (c < classOf.length)
+      return classOf[c];
+    if (ignoreCase)
+    {
+      c = fold(c);
+      if (c < classOf.length)
+        return classOf[c];
+    }
+    return 0;
+  }
+
+  private char fold(char c)
+  {
+    return ignoreCase ? Character.toLowerCase(Character.toUpperCase(c)) : c;
+  }
+
+  private static Map<String, String> singleton(String find, String replace)
+  {
+    Map<String, String> ret = new LinkedHashMap<>();
+    ret.put(find, replace);
+    return ret;
+  }
+
+  private static Chunks chunksOf(CharSequence text)
+  {
+    if (text instanceof CharBuffer)
+    {
+      CharBuffer source = ((CharBuffer) text).duplicate();
+      return (buf, off, len) ->
+      {
+        if (!source.hasRemaining())
+          return -1;
+        len = Math.min(len, source.remaining());
+        source.get(buf, off, len);
+        return len;
+      };
+    }
+    int[] next = {0};
+    return (buf, off, len) ->
+    {
+      int from = next[0];
+      if (from == text.length())
+        return -1;
+      len = Math.min(len, text.length() - from);
+      if (text instanceof String)
+        ((String) text).getChars(from, from + len, buf, off);
+      else
+        for (int i = 0; i < len; i++)
+          buf[off + i] = text.charAt(from + i);
+      next[0] = from + len;
+      return len;
+    };
+  }
+
+  private interface Chunks
+  {
+    int read(char[] buf, int off, int len) throws IOException;
+  }
+
+  // Unsynchronized stand in for StringWriter
+  private static class BuilderWriter extends Writer
+  {
+    private final StringBuilder out;
+
+    BuilderWriter(StringBuilder out)
+    {
+      this.out = out;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len)
+    {
+      out.append(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str)
+    {
+      out.append(str);
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package util;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Lower case hexadecimal encoding and decoding, two digits per byte, through lookup tables.
+ * The array and buffer forms write into space the caller provides.
+ * Decoding accepts either case.
+ */
+public class Hex
+{
+  static final char[] DIGITS = "0123456789abcdef".toCharArray();
+  private static final byte[] DIGIT_BYTES = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+  private static final byte[] NIBBLES = new byte[128]; // value of each ASCII digit, -1 if it is not one
+  private static final int APPEND_CHUNK = 1 << 11;
+
+  static
+  {
+    Arrays.fill(NIBBLES, (byte) -1);
+    for (int i = 0; i < 16; i++)
+    {
+      NIBBLES[DIGITS[i]] = (byte) i;
+      NIBBLES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+    }
+  }
+
+  /**
+   * @return the bytes as a string of hex digits.
+   */
+  public static String encode(byte[] src)
+  {
+    char[] ret = new char[2 * src.length];
+    encode(src, 0, src.length, ret, 0);
+    return new String(ret);
+  }
+
+  /**
+   * Writes two hex digits per byte of src[off, off + len) into dst from dstOff.
+   *
+   * @return the index in dst just past the last digit written.
+   */
+  public static int encode(byte[] src, int off, int len, char[] dst, int dstOff)
+  {
+    for (int i = off, end = off + len; i < end; i++)
+    {
+      int b = src[i];
+      dst[dstOff++] = DIGITS[(b >>> 4) & 0xF];
+      dst[dstOff++] = DIGITS[b & 0xF];
+    }
+    return dstOff;
+  }
+
+  /**
+   * Writes two ASCII hex digits per byte of src[off, off + len) into dst from dstOff.
+   *
+   * @return the index in dst just past the last digit written.
+   */
+  public static int encode(byte[] src, int off, int len, byte[] dst, int dstOff)
+  {
+    for (int i = off, end = off + len; i < end; i++)
+    {
+      int b = src[i];
+      dst[dstOff++] = DIGIT_BYTES[(b >>> 4) & 0xF];
+      dst[dstOff++] = DIGIT_BYTES[b & 0xF];
+    }
+    return dstOff;
+  }
+
+  /**
+   * Appends two hex digits per byte of src[off, off + len) to out.
+   */
+  public static void encode(byte[] src, int off, int len, Appendable out) throws IOException
+  {
+    if (out instanceof StringBuilder)
+      ((StringBuilder) out).ensureCapacity(((StringBuilder) out).length() + 2 * len);
+    char[] chunk = new char[(int) Math.min(2L * len, APPEND_CHUNK)];
+    for (int done = 0; done < len; )
+    {
+      int take = Math.min(len - done, chunk.length / 2);
+      encode(src, off + done, take, chunk, 0);
+      if (out instanceof StringBuilder)
+        ((StringBuilder) out).append(chunk, 0, 2 * take);
+      else
+        out.append(CharBuffer.wrap(chunk, 0, 2 * take));
+      done += take;
+    }
+  }
+
+  /**
+   * Encodes the bytes from src's position to its limit, consuming them.
+   *
+   * @return the index in dst just past the last digit written.
+   * @throws BufferOverflowException if dst has too little room left, in which case nothing is consumed.
+   */
+  public static int encode(ByteBuffer src, char[] dst, int dstOff)
+  {
+    if (dst.length - dstOff < 2L * src.remaining())
+      throw new BufferOverflowException();
+    if (src.hasArray())
+    {
+      int len = src.remaining();
+      dstOff = encode(src.array(), src.arrayOffset() + src.position(), len, dst, dstOff);
+      src.position(src.limit());
+      return dstOff;
+    }
+    while (src.hasRemaining())
+    {
+      int b = src.get();
+      dst[dstOff++] = DIGITS[(b >>> 4) & 0xF];
+      dst[dstOff++] = DIGITS[b & 0xF];
+    }
+    return dstOff;
+  }
+
+  /**
+   * Encodes the bytes from src's position to its limit into dst as ASCII digits, consuming them.
+   *
+   * @throws BufferOverflowException if dst has less than twice src's remaining bytes left, in which case neither buffer is changed.
+   */
+  public static void encode(ByteBuffer src, ByteBuffer dst)
+  {
+    if (dst.remaining() < 2L * src.remaining())
+      throw new BufferOverflowException();
+    if (src.hasArray() && dst.hasArray())
+    {
+      int len = src.remaining();
+      encode(src.array(), src.arrayOffset() + src.position(), len, dst.array(), dst.arrayOffset() + dst.position());
+      src.position(src.limit());
+      dst.position(dst.position() + 2 * len);
+      return;
+    }
+    while (src.hasRemaining())
+    {
+      int b = src.get();
+      dst.put(DIGIT_BYTES[(b >>> 4) & 0xF]);
+      dst.put(DIGIT_BYTES[b & 0xF]);
+    }
+  }
+
+  /**
+   * @return the bytes a string of hex digits stands for.
+   * @throws IllegalArgumentException if the length is odd or a char is not a hex digit.
+   */
+  public static byte[] decode(CharSequence hex)
+  {
+    if ((hex.length() & 1) != 0)
+      throw new IllegalArgumentException("Hex strings have an even number of digits!");
+    byte[] ret = new byte[hex.length() / 2];
+    decode(hex, 0, hex.length(), ret, 0);
+    return ret;
+  }
+
+  /**
+   * Decodes the digits hex[off, off + len) into dst from dstOff.
+   *
+   * @return the index in dst just past the last byte written.
+   * @throws IllegalArgumentException if len is odd or a char is not a hex digit.
+   */
+  public static int decode(CharSequence hex, int off, int len, byte[] dst, int dstOff)
+  {
+    if ((len & 1) != 0)
+      throw new IllegalArgumentException("Hex strings have an even number of digits!");
+    for (int i = off, end = off + len; i < end; i += 2)
+      dst[dstOff++] = (byte) (nibble(hex.charAt(i), i) << 4 | nibble(hex.charAt(i + 1), i + 1));
+    return dstOff;
+  }
+
+  /**
+   * Decodes the ASCII digits hex[off, off + len) into dst from dstOff.
+   *
+   * @return the index in dst just past the last byte written.
+   * @throws IllegalArgumentException if len is odd or a byte is not a hex digit.
+   */
+  public static int decode(byte[] hex, int off, int len, byte[] dst, int dstOff)
+  {
+    if ((len & 1) != 0)
+      throw new IllegalArgumentException("Hex strings have an even number of digits!");
+    for (int i = off, end = off + len; i < end; i += 2)
+      dst[dstOff++] = (byte) (nibble((char) (hex[i] & 0xFF), i) << 4 | nibble((char) (hex[i + 1] & 0xFF), i + 1));
+    return dstOff;
+  }
+
+  private static int nibble(char c, int index)
+  {
+    int ret = c < 128 ? NIBBLES[c] : -1;
+    if (ret < 0)
+      throw new IllegalArgumentException("'" + c + "' at " + index + " is not a hex digit!");
+    return ret;
+  }
+}
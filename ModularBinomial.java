@@ -0,0 +1,244 @@
+package util;
+
+/**
+ * Binomial coefficients C(n, k) modulo a fixed modulus, for every n up to a chosen bound.
+ * <p>
+ * The modulus is split into prime powers. For each prime p the factorials (and inverse
+ * factorials) below p are tabled and C(n, k) mod p follows from Lucas's theorem. For each
+ * higher power p^e, the products of the numbers not divisible by p are tabled instead and
+ * C(n, k) mod p^e follows from Granville's extension of Lucas's theorem. The parts are joined
+ * with the Chinese remainder theorem. Tables are built once, in the constructor, and only read
+ * after that, so one instance can answer queries from several threads; each query is O(log n)
+ * multiplications over them.
+ */
+public class ModularBinomial
+{
+  // Below this, the product of two residues fits in a long
+  private static final long DIRECT_MULTIPLY_LIMIT = 3037000499L;
+
+  private final long modulus;
+  private final int maxN;
+  private final PrimePower[] parts;
+  private final long[] crtWeights; // parts[i]'s residue is multiplied by crtWeights[i] when joining
+
+  /**
+   * Builds the tables for a modulus. They hold min(p^e, maxN + 1) entries for each prime power p^e
+   * dividing the modulus.
+   *
+   * @param modulus Modulus to reduce by, at least 1.
+   * @param maxN    Largest n that will be asked about.
+   */
+  public ModularBinomial(long modulus, int maxN)
+  {
+    if (modulus < 1)
+      throw new IllegalArgumentException("The modulus must be positive!");
+    if (maxN < 0)
+      throw new IllegalArgumentException("maxN can not be negative!");
+    this.modulus = modulus;
+    this.maxN = maxN;
+
+    long[] factors = Prime.getPrimeFactors(modulus);
+    int distinct = 0;
+    for (int i = 0; i < factors.length; i++)
+      if (i == 0 || factors[i] != factors[i - 1])
+        distinct++;
+
+    parts = new PrimePower[distinct];
+    crtWeights = new long[distinct];
+    int part = 0;
+    for (int i = 0; i < factors.length; )
+    {
+      long p = factors[i];
+      int e = 0;
+      while (i < factors.length && factors[i] == p)
+      {
+        e++;
+        i++;
+      }
+      PrimePower pp = new PrimePower(p, e, maxN);
+      parts[part] = pp;
+      long rest = modulus / pp.q;
+      crtWeights[part] = mulMod(rest, inverse(rest % pp.q, pp.q), modulus);
+      part++;
+    }
+  }
+
+  public long getModulus()
+  {
+    return modulus;
+  }
+
+  /**
+   * @return the largest n this instance can answer for.
+   */
+  public int getMaxN()
+  {
+    return maxN;
+  }
+
+  /**
+   * Choose, reduced by the modulus.
+   *
+   * @param n Quantity to choose from, at most maxN.
+   * @param k Quantity being chosen.
+   * @return n choose k mod the modulus (0 when k is out of range).
+   */
+  public long choose(long n, long k)
+  {
+    if (n > maxN)
+      throw new IllegalArgumentException(n + " is past the " + maxN + " these tables were built for!");
+    if (k < 0 || k > n || modulus == 1)
+      return 0;
+    if (parts.length == 1)
+      return parts[0].choose(n, k);
+    long ret = 0;
+    for (int i = 0; i < parts.length; i++)
+    {
+      ret += mulMod(parts[i].choose(n, k), crtWeights[i], modulus);
+      if (ret >= modulus || ret < 0)
+        ret -= modulus;
+    }
+    return ret;
+  }
+
+  /**
+   * Tables for C(n, k) mod q, where q = p^e.
+   */
+  private static class PrimePower
+  {
+    final long p;
+    final int e;
+    final long q;
+    final long[] table;    // e == 1: i! mod p;  e > 1: product of 1..i skipping multiples of p, mod q
+    final long[] inverses; // e == 1: (i!)^-1 mod p;  e > 1: unused
+    final long periodProduct;
+
+    PrimePower(long p, int e, int maxN)
+    {
+      this.p = p;
+      this.e = e;
+      long q = 1;
+      for (int i = 0; i < e; i++)
+        q *= p;
+      this.q = q;
+      // The units mod p^e multiply to -1, except mod 2^e for e >= 3 where they multiply to 1
+      periodProduct = (p == 2 && e >= 3) ? 1 : q - 1;
+
+      int size = (int) Math.min(q, maxN + 1L);
+      table = new long[size];
+      table[0] = 1;
+      for (int i = 1; i < size; i++)
+        table[i] = i % p == 0 && e > 1 ? table[i - 1] : mulMod(table[i - 1], i, q);
+      if (e == 1)
+      {
+        inverses = new long[size];
+        inverses[size - 1] = inverse(table[size - 1], q);
+        for (int i = size - 1; i > 0; i--)
+          inverses[i - 1] = mulMod(inverses[i], i, q);
+      }
+      else
+        inverses = null;
+    }
+
+    long choose(long n, long k)
+    {
+      return e == 1 ? lucas(n, k) : granville(n, k);
+    }
+
+    // Lucas: C(n, k) is the product of C(n_i, k_i) over the base p digits
+    long lucas(long n, long k)
+    {
+      long ret = 1 % q;
+      while (n > 0)
+      {
+        int ni = (int) (n % p);
+        int ki = (int) (k % p);
+        if (ki > ni)
+          return 0;
+        ret = mulMod(ret, mulMod(table[ni], mulMod(inverses[ki], inverses[ni - ki], q), q), q);
+        n /= p;
+        k /= p;
+      }
+      return ret;
+    }
+
+    // Granville: C(n, k) = p^c * N(n) / (N(k) N(n - k)), c being the number of carries (Kummer)
+    long granville(long n, long k)
+    {
+      int c = Util.factorialExponent(n, p) - Util.factorialExponent(k, p) - Util.factorialExponent(n - k, p);
+      if (c >= e)
+        return 0;
+      long ret = mulMod(unitPart(n), inverse(mulMod(unitPart(k), unitPart(n - k), q), q), q);
+      for (int i = 0; i < c; i++)
+        ret = mulMod(ret, p, q);
+      return ret;
+    }
+
+    // n! with every factor of p removed, mod q
+    long unitPart(long n)
+    {
+      long ret = 1 % q;
+      while (n > 0)
+      {
+        long part = table[(int) (n % q)];
+        if ((n / q) % 2 == 1)
+          part = mulMod(part, periodProduct, q);
+        ret = mulMod(ret, part, q);
+        n /= p;
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * @return a * b mod m, for 0 &lt;= a, b &lt; m, without overflowing.
+   */
+  static long mulMod(long a, long b, long m)
+  {
+    if (m <= DIRECT_MULTIPLY_LIMIT)
+      return a * b % m;
+    if ((m & (m - 1)) == 0)
+      return a * b & (m - 1);
+    // Double and add, keeping every partial sum below m
+    long ret = 0;
+    a %= m;
+    while (b > 0)
+    {
+      if ((b & 1) == 1)
+      {
+        ret += a - m;
+        if (ret < 0)
+          ret += m;
+      }
+      a += a - m;
+      if (a < 0)
+        a += m;
+      b >>= 1;
+    }
+    return ret;
+  }
+
+  /**
+   * @return the inverse of a mod m, by the extended Euclidean algorithm.
+   */
+  static long inverse(long a, long m)
+  {
+    long t = 0;
+    long newT = 1;
+    long r = m;
+    long newR = a % m;
+    while (newR != 0)
+    {
+      long quotient = r / newR;
+      long tmp = t - quotient * newT;
+      t = newT;
+      newT = tmp;
+      tmp = r - quotient * newR;
+      r = newR;
+      newR = tmp;
+    }
+    if (r > 1)
+      throw new ArithmeticException(a + " has no inverse mod " + m + "!");
+    return t < 0 ? t + m : t;
+  }
+}
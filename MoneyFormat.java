@@ -0,0 +1,264 @@
+package util;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats amounts of money, as in "$7,523.10" or "-$0.05".
+ * <p>
+ * Amounts are longs counted in the currency's minor unit (cents, for two fraction digits), so no
+ * rounding ever happens on that path. The length of the result is worked out first and the digits
+ * and grouping separators are then written right to left, straight into the destination; the
+ * char[] forms, single and bulk, build no intermediate string. BigDecimal amounts are rounded half
+ * even to the minor unit, and take the long path whenever they fit. Negative amounts print a minus
+ * sign in front of the prefix. The symbols and sizes are fixed at construction, so {@link #USD} and
+ * any other format can be shared between threads.
+ */
+public class MoneyFormat
+{
+  /** US dollars: "$1,234.56". */
+  public static final MoneyFormat USD = new MoneyFormat("$", "", ',', 3, '.', 2);
+
+  private static final long[] POWERS_OF_TEN = new long[19];
+
+  static
+  {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+  }
+
+  private final char[] prefix;
+  private final char[] suffix;
+  private final char grouping;
+  private final int groupSize;
+  private final char decimal;
+  private final int fractionDigits;
+
+  /**
+   * @param prefix         Written before the digits, as in "$".
+   * @param suffix         Written after the digits, as in " EUR".
+   * @param grouping       Separator between groups of integer digits.
+   * @param groupSize      Digits per group, or 0 for no grouping.
+   * @param decimal        Separator before the fraction digits.
+   * @param fractionDigits Digits of the minor unit, as in 2 for cents.
+   */
+  public MoneyFormat(String prefix, String suffix, char grouping, int groupSize, char decimal, int fractionDigits)
+  {
+    if (groupSize < 0 || fractionDigits < 0 || fractionDigits > 18)
+      throw new IllegalArgumentException("Can not group by " + groupSize + " with " + fractionDigits + " fraction digits!");
+    this.prefix = prefix.toCharArray();
+    this.suffix = suffix.toCharArray();
+    this.grouping = grouping;
+    this.groupSize = groupSize;
+    this.decimal = decimal;
+    this.fractionDigits = fractionDigits;
+  }
+
+  /**
+   * Takes the symbol, its placement, the separators and the fraction digits from the locale's
+   * currency format.
+   */
+  public static MoneyFormat forLocale(Locale locale)
+  {
+    NumberFormat format = NumberFormat.getCurrencyInstance(locale);
+    if (!(format instanceof DecimalFormat))
+      throw new IllegalArgumentException("The currency format of " + locale + " is not a decimal format!");
+    DecimalFormat decimalFormat = (DecimalFormat) format;
+    DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+    return new MoneyFormat(decimalFormat.getPositivePrefix(), decimalFormat.getPositiveSuffix(),
+        symbols.getGroupingSeparator(), decimalFormat.isGroupingUsed() ? decimalFormat.getGroupingSize() : 0,
+        symbols.getMonetaryDecimalSeparator(), decimalFormat.getMaximumFractionDigits());
+  }
+
+  public int getFractionDigits()
+  {
+    return fractionDigits;
+  }
+
+  /**
+   * @return the most chars any long amount can take, for sizing buffers.
+   */
+  public int maxLength()
+  {
+    return length(Long.MIN_VALUE);
+  }
+
+  /**
+   * @return the number of chars the amount takes.
+   */
+  public int length(long minorUnits)
+  {
+    int digits = Math.max(digitCount(minorUnits), fractionDigits + 1);
+    int integerDigits = digits - fractionDigits;
+    int ret = prefix.length + integerDigits + suffix.length;
+    if (minorUnits < 0)
+      ret++;
+    if (groupSize > 0)
+      ret += (integerDigits - 1) / groupSize;
+    if (fractionDigits > 0)
+      ret += 1 + fractionDigits;
+    return ret;
+  }
+
+  /**
+   * @param minorUnits Amount in the currency's minor unit.
+   * @return the amount as a string.
+   */
+  public String format(long minorUnits)
+  {
+    char[] ret = new char[length(minorUnits)];
+    format(minorUnits, ret, 0);
+    return new String(ret);
+  }
+
+  /**
+   * Writes the amount into dst from off.
+   *
+   * @param minorUnits Amount in the currency's minor unit.
+   * @return the index in dst just past the amount.
+   */
+  public int format(long minorUnits, char[] dst, int off)
+  {
+    int end = off + length(minorUnits);
+    int pos = end - suffix.length;
+    System.arraycopy(suffix, 0, dst, pos, suffix.length);
+
+    // Long.MIN_VALUE has no positive long, but negating it gives the right unsigned magnitude
+    long magnitude = minorUnits < 0 ? -minorUnits : minorUnits;
+    int digit = (int) Long.remainderUnsigned(magnitude, 10);
+    magnitude = Long.divideUnsigned(magnitude, 10);
+    for (int i = 0; i < fractionDigits; i++)
+    {
+      dst[--pos] = (char) ('0' + digit);
+      digit = (int) (magnitude % 10);
+      magnitude /= 10;
+    }
+    if (fractionDigits > 0)
+      dst[--pos] = decimal;
+    for (int i = 0; ; i++)
+    {
+      if (groupSize > 0 && i > 0 && i % groupSize == 0)
+        dst[--pos] = grouping;
+      dst[--pos] = (char) ('0' + digit);
+      if (magnitude == 0)
+        break;
+      digit = (int) (magnitude % 10);
+      magnitude /= 10;
+    }
+    pos -= prefix.length;
+    System.arraycopy(prefix, 0, dst, pos, prefix.length);
+    if (minorUnits < 0)
+      dst[--pos] = '-';
+    return end;
+  }
+
+  /**
+   * Appends the amount to out.
+   *
+   * @param minorUnits Amount in the currency's minor unit.
+   * @return out
+   */
+  public StringBuilder format(long minorUnits, StringBuilder out)
+  {
+    int length = length(minorUnits);
+    char[] chars = new char[length];
+    format(minorUnits, chars, 0);
+    return out.append(chars, 0, length);
+  }
+
+  /**
+   * Appends the amount to out.
+   *
+   * @param minorUnits Amount in the currency's minor unit.
+   */
+  public void format(long minorUnits, Appendable out) throws IOException
+  {
+    if (out instanceof StringBuilder)
+    {
+      format(minorUnits, (StringBuilder) out);
+      return;
+    }
+    out.append(format(minorUnits));
+  }
+
+  /**
+   * Formats amounts[from, to) into dst from off, writing separator after each one.
+   * dst needs at most (to - from) * ({@link #maxLength()} + 1) chars from off.
+   *
+   * @param amounts Amounts in the currency's minor unit.
+   * @return the index in dst just past the last separator.
+   */
+  public int formatAll(long[] amounts, int from, int to, char separator, char[] dst, int off)
+  {
+    for (int i = from; i < to; i++)
+    {
+      off = format(amounts[i], dst, off);
+      dst[off++] = separator;
+    }
+    return off;
+  }
+
+  /**
+   * Appends every amount to out, with separator after each one.
+   *
+   * @param amounts Amounts in the currency's minor unit.
+   * @return out
+   */
+  public StringBuilder formatAll(long[] amounts, char separator, StringBuilder out)
+  {
+    char[] chunk = new char[64 * (maxLength() + 1)];
+    for (int i = 0; i < amounts.length; i += 64)
+    {
+      int end = formatAll(amounts, i, Math.min(amounts.length, i + 64), separator, chunk, 0);
+      out.append(chunk, 0, end);
+    }
+    return out;
+  }
+
+  /**
+   * Formats an amount, rounded half even to the minor unit.
+   */
+  public String format(BigDecimal amount)
+  {
+    BigInteger minorUnits = amount.setScale(fractionDigits, RoundingMode.HALF_EVEN).unscaledValue();
+    if (minorUnits.bitLength() < 64)
+      return format(minorUnits.longValue());
+
+    // Too many digits for a long: the same layout, from the decimal digits
+    String digits = minorUnits.abs().toString();
+    int integerDigits = digits.length() - fractionDigits;
+    StringBuilder ret = new StringBuilder(digits.length() + digits.length() / 2 + prefix.length + suffix.length + 2);
+    if (minorUnits.signum() < 0)
+      ret.append('-');
+    ret.append(prefix);
+    for (int i = 0; i < integerDigits; i++)
+    {
+      int left = integerDigits - i;
+      if (groupSize > 0 && i > 0 && left % groupSize == 0)
+        ret.append(grouping);
+      ret.append(digits.charAt(i));
+    }
+    if (fractionDigits > 0)
+      ret.append(decimal).append(digits, integerDigits, digits.length());
+    return ret.append(suffix).toString();
+  }
+
+  // Decimal digits of |value|, counting Long.MIN_VALUE's as 19
+  private static int digitCount(long value)
+  {
+    if (value == Long.MIN_VALUE)
+      return 19;
+    value = Math.abs(value);
+    int ret = 1;
+    while (ret < POWERS_OF_TEN.length && value >= POWERS_OF_TEN[ret])
+      ret++;
+    return ret;
+  }
+}
@@ -0,0 +1,319 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Generates rows of Pascal's triangle as divisibility maps, one row at a time, into buffers
+ * that are reused from row to row.
+ * <p>
+ * Rows are bitsets: bit k of a row (bit k &amp; 63 of word k &gt;&gt;&gt; 6, as in
+ * {@link java.util.BitSet#toLongArray()}) stands for n choose k. By Lucas's theorem a prime p
+ * fails to divide C(n, k) exactly when every base p digit of k is at most the matching digit of n,
+ * so those rows are built by copying whole words of the row's lower blocks, in O(n / 64).
+ * Factors with a square prime power fall back to tracking the exponent along the row, in O(n).
+ */
+public class PascalRows
+{
+  private final int factor;
+  private final int maxN;
+  private final long[] flags;
+  private final long[] primes;  // distinct primes of the factor, ascending
+  private final int[] needed;   // needed[i] is the exponent of primes[i] in the factor
+  private final long[] scratch; // one prime's coprime row, while building flags
+  private int[] residues;
+  private int[] digitRow;
+  private int n = -1;
+
+  /**
+   * @param factor Factor the rows are tested against.
+   * @param maxN   Last row to generate.
+   */
+  public PascalRows(int factor, int maxN)
+  {
+    if (maxN < 0)
+      throw new IllegalArgumentException("There is no row " + maxN + "!");
+    this.factor = factor;
+    this.maxN = maxN;
+    flags = new long[words(maxN)];
+    scratch = new long[flags.length];
+    long[] factorFactors = factor == 0 ? new long[0] : Prime.getPrimeFactors(Math.abs((long) factor));
+    primes = distinct(factorFactors);
+    needed = multiplicities(factorFactors, primes);
+  }
+
+  public boolean hasNext()
+  {
+    return n < maxN;
+  }
+
+  /**
+   * Moves to the next row and returns its divisibility map.
+   *
+   * @return bitset where bit k is set if the factor divides n choose k. The array is reused by the next call.
+   */
+  public long[] next()
+  {
+    if (!hasNext())
+      throw new IllegalStateException("Already past row " + maxN + "!");
+    n++;
+    divisibleRow(n, factor == 0, primes, needed, flags, scratch);
+    return flags;
+  }
+
+  /**
+   * @return the row last returned by {@link #next()}.
+   */
+  public int getRow()
+  {
+    return n;
+  }
+
+  /**
+   * Returns every entry of the current row reduced mod the factor, which must be prime.
+   *
+   * @return array where entry k is n choose k mod factor. The array is reused by the next call.
+   */
+  public int[] residues()
+  {
+    if (n < 0)
+      throw new IllegalStateException("next() has not been called yet!");
+    if (factor < 2)
+      throw new IllegalArgumentException("The factor must be a prime!");
+    if (residues == null)
+    {
+      residues = new int[maxN + 1];
+      digitRow = new int[Math.min(factor, maxN + 1)];
+    }
+    residueRow(n, factor, residues, digitRow);
+    return residues;
+  }
+
+  /**
+   * @return the number of longs a bitset needs to hold row n.
+   */
+  public static int words(int n)
+  {
+    return (n >>> 6) + 1;
+  }
+
+  /**
+   * Parity of row n: bit k is set if n choose k is odd, which is when k's bits are a subset of n's.
+   *
+   * @param n   Row of the triangle
+   * @param out Receives the row; needs at least words(n) longs.
+   */
+  public static void oddRow(int n, long[] out)
+  {
+    // Pattern for the low 6 bits of k, shared by every word whose high bits of k fit in n
+    long low = 0;
+    int s = n & 63;
+    for (int sub = s; ; sub = (sub - 1) & s)
+    {
+      low |= 1L << sub;
+      if (sub == 0)
+        break;
+    }
+    int words = words(n);
+    for (int w = 0; w < words; w++)
+      out[w] = ((w << 6) & ~n) == 0 ? low : 0;
+  }
+
+  /**
+   * Bit k is set if the prime p does NOT divide n choose k, that is (Lucas) if every base p
+   * digit of k is at most the matching digit of n.
+   *
+   * @param n   Row of the triangle
+   * @param p   Prime
+   * @param out Receives the row; needs at least words(n) longs.
+   */
+  public static void coprimeRow(int n, int p, long[] out)
+  {
+    if (p == 2)
+    {
+      oddRow(n, out);
+      return;
+    }
+    int words = words(n);
+    int limit = n + 1;
+    Arrays.fill(out, 0, words, 0L);
+
+    // Lowest digit: k from 0 to n_0
+    int low = n % p;
+    setRange(out, 0, low + 1);
+
+    // Each further digit d of k (up to n's digit) repeats the block of lower digits at d * p^j
+    long block = p;
+    for (int rest = n / p; rest > 0; rest /= p)
+    {
+      int digit = rest % p;
+      for (int d = digit; d >= 1; d--)
+        copyBits(out, (int) block, (int) (d * block), limit);
+      block *= p;
+    }
+  }
+
+  /**
+   * Bit k is set if factor divides n choose k.
+   *
+   * @param n      Row of the triangle
+   * @param factor Factor to test for
+   * @param out    Receives the row; needs at least words(n) longs.
+   */
+  public static void divisibleRow(int n, int factor, long[] out)
+  {
+    long[] factorFactors = factor == 0 ? new long[0] : Prime.getPrimeFactors(Math.abs((long) factor));
+    long[] primes = distinct(factorFactors);
+    divisibleRow(n, factor == 0, primes, multiplicities(factorFactors, primes), out, new long[words(n)]);
+  }
+
+  // divisibleRow, for a factor already split into primes[i]^needed[i]; scratch needs words(n) longs
+  private static void divisibleRow(int n, boolean zero, long[] primes, int[] needed, long[] out, long[] scratch)
+  {
+    int words = words(n);
+    if (zero)
+    {
+      Arrays.fill(out, 0, words, 0L);
+      return;
+    }
+    Arrays.fill(out, 0, words, -1L);
+
+    for (int i = 0; i < primes.length; i++)
+    {
+      long p = primes[i];
+      if (needed[i] == 1)
+      {
+        coprimeRow(n, (int) p, scratch);
+        for (int w = 0; w < words; w++)
+          out[w] &= ~scratch[w];
+      }
+      else
+      {
+        // Exponent of p in C(n, k), moved along the row by C(n, k) = C(n, k - 1) * (n - k + 1) / k
+        int exponent = 0;
+        out[0] &= ~1L;
+        for (int k = 1; k <= n; k++)
+        {
+          if (p == 2)
+            exponent += Integer.numberOfTrailingZeros(n - k + 1) - Integer.numberOfTrailingZeros(k);
+          else
+            exponent += Util.factorQuantity(n - k + 1, p) - Util.factorQuantity(k, p);
+          if (exponent < needed[i])
+            out[k >>> 6] &= ~(1L << k);
+        }
+      }
+    }
+    // Nothing past the end of the row
+    if (((n + 1) & 63) != 0)
+      out[words - 1] &= (1L << ((n + 1) & 63)) - 1;
+  }
+
+  /**
+   * Row n of Pascal's triangle reduced mod a prime, built from the rows of n's base p digits (Lucas).
+   *
+   * @param n   Row of the triangle
+   * @param p   Prime
+   * @param out Receives the row; needs at least n + 1 entries.
+   */
+  public static void residueRow(int n, int p, int[] out)
+  {
+    if (p < 2)
+      throw new IllegalArgumentException("The factor must be a prime!");
+    residueRow(n, p, out, new int[Math.min(p, n + 1)]);
+  }
+
+  // residueRow, with a buffer of at least min(p, n + 1) entries for one digit's row
+  private static void residueRow(int n, int p, int[] out, int[] digitRow)
+  {
+    Arrays.fill(out, 0, n + 1, 0);
+
+    // Lowest digit: C(n_0, k) mod p
+    int low = n % p;
+    fillDigitRow(low, p, digitRow);
+    System.arraycopy(digitRow, 0, out, 0, low + 1);
+
+    // C(n, k) = C(n_j, d) * (entry for k's lower digits), for k = d * p^j + lower
+    long block = p;
+    for (int rest = n / p; rest > 0; rest /= p)
+    {
+      int digit = rest % p;
+      fillDigitRow(digit, p, digitRow);
+      for (int d = digit; d >= 1; d--)
+      {
+        long start = d * block;
+        long c = digitRow[d];
+        int end = (int) Math.min(block, n + 1 - start);
+        for (int k = 0; k < end; k++)
+          out[(int) (start + k)] = (int) (out[k] * c % p);
+      }
+      block *= p;
+    }
+  }
+
+  // Each prime of a sorted factorization once
+  private static long[] distinct(long[] factorFactors)
+  {
+    int count = 0;
+    for (int i = 0; i < factorFactors.length; i++)
+      if (i == 0 || factorFactors[i] != factorFactors[i - 1])
+        count++;
+    long[] ret = new long[count];
+    count = 0;
+    for (int i = 0; i < factorFactors.length; i++)
+      if (i == 0 || factorFactors[i] != factorFactors[i - 1])
+        ret[count++] = factorFactors[i];
+    return ret;
+  }
+
+  // How many times each of primes appears in a sorted factorization
+  private static int[] multiplicities(long[] factorFactors, long[] primes)
+  {
+    int[] ret = new int[primes.length];
+    for (int i = 0, j = 0; i < factorFactors.length; i++)
+    {
+      if (factorFactors[i] != primes[j])
+        j++;
+      ret[j]++;
+    }
+    return ret;
+  }
+
+  // row[d] = C(m, d) mod p for d <= m < p
+  private static void fillDigitRow(int m, int p, int[] row)
+  {
+    row[0] = 1 % p;
+    for (int d = 1; d <= m; d++)
+      row[d] = (int) ((long) row[d - 1] * (m - d + 1) % p * ModularBinomial.inverse(d, p) % p);
+  }
+
+  // Sets bits [from, to)
+  private static void setRange(long[] bits, int from, int to)
+  {
+    for (int k = from; k < to; )
+    {
+      int w = k >>> 6;
+      int end = Math.min(to, (w + 1) << 6);
+      long mask = end - k == 64 ? -1L : ((1L << (end - k)) - 1) << k;
+      bits[w] |= mask;
+      k = end;
+    }
+  }
+
+  // ORs bits [0, length) into [dst, dst + length), dropping anything at or past limit. Requires dst >= length.
+  private static void copyBits(long[] bits, int length, int dst, int limit)
+  {
+    int count = Math.min(length, limit - dst);
+    for (int done = 0; done < count; done += 64)
+    {
+      long word = bits[done >>> 6];
+      int take = Math.min(64, count - done);
+      if (take < 64)
+        word &= (1L << take) - 1;
+      int pos = dst + done;
+      int w = pos >>> 6;
+      int shift = pos & 63;
+      bits[w] |= word << shift;
+      if (shift != 0 && take > 64 - shift)
+        bits[w + 1] |= word >>> (64 - shift);
+    }
+  }
+}
@@ -1,25 +1,63 @@
 package util;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
-
-import static util.Util.factorQuantity;
-import static util.Util.hasFactor;
-
+import java.util.PrimitiveIterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import static util.Util.gcd;
+
+/**
+ * Static prime table and the methods built on top of it.
+ * All methods are safe to call from any number of threads: readers work on
+ * the last published {@link Table} snapshot without locking, and only one
+ * thread at a time extends the table and publishes the next snapshot.
+ */
 public class Prime
 {
-  private static ArrayList<Long> primes = new ArrayList<>();
-  private static ArrayList<Double> logPrime = new ArrayList<>();
-  private static HashMap<Long, HashMap<Long, Integer>> compositeFactorizations = new HashMap<>();
-  private static long highestValue = 0;
+  private static volatile Table table = new Table(new int[1024], 0, 0);
+  private static final Object growLock = new Object();
+  private static final Object fileLock = new Object();
+  private static final FactorizationCache compositeFactorizations = new FactorizationCache(1 << 16, 16L << 20);
+  private static volatile SmallestPrimeFactors smallestFactors = null;
+
+  // Odd numbers covered by one sieve window; 32K flags keeps the window in L1/L2 cache.
+  private static final int SEGMENT_ODDS = 1 << 15;
+  private static final long SEGMENT_SPAN = 2L * SEGMENT_ODDS;
+  // Windows sieved by each task of a parallel warm up
+  private static final int WINDOWS_PER_TASK = 32;
+  private static final boolean[] sieveWindow = new boolean[SEGMENT_ODDS]; // guarded by growLock
+  private static final long MAX_TABLE_VALUE = 0xFFFFFFFFL;
+  private static final long LARGEST_LONG_PRIME = 9223372036854775783L;
+  // Largest base prime used to sieve windows that are not added to the table
+  private static final long WINDOW_BASE_LIMIT = 1 << 22;
+  // Largest value countPrimes accepts; its memory grows with sqrt(x) and time with x^(3/4)
+  private static final long MAX_COUNTABLE = 100_000_000_000_000L;
+  // The prime at index Integer.MAX_VALUE; every larger prime's index overflows an int
+  private static final long LAST_INT_PLACE_PRIME = 50_685_770_167L;
+
+
+  // Witnesses that make Miller-Rabin deterministic below each bound (and for every long in the last case)
+  private static final long[] WITNESSES_32 = {2, 7, 61};                           // n < 4,759,123,141
+  private static final long[] WITNESSES_48 = {2, 3, 5, 7, 11, 13, 17};              // n < 341,550,071,728,321
+  private static final long[] WITNESSES_64 = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+
+  private static final long TRIAL_DIVISION_LIMIT = 1 << 10;
+  private static final int POLLARD_BATCH = 128;
 
 
   /**
    * Checks to see if an integer is prime.
-   * Stores a list of prime integers up to the square root of the largest
-   * number checked since program was started.
+   * Values within the cached prime table are looked up directly; anything
+   * above it is tested with a deterministic Miller-Rabin test, so asking
+   * about a huge value never grows the table.
    *
    * @param n Number checked
    * @return if said number is prime or not.
@@ -28,189 +66,947 @@ public class Prime
   {
     if (n < 2)
       return false;
-    int index = Collections.binarySearch(primes, (Long)n);
-    if (index >= 0)
-      return true;
-    if (-index - 1 != primes.size())
-      return false;
+    Table t = table;
+    if (n <= t.highestValue)
+      return t.binarySearch(n) >= 0;
+    return millerRabin(n);
+  }
 
-    int sqrt = (int)Math.sqrt(n);
+  /**
+   * Deterministic Miller-Rabin test, valid for every positive long.
+   * Runs in O(log^3 n) and does not touch the prime table.
+   */
+  private static boolean millerRabin(long n)
+  {
+    for (long p : WITNESSES_64)
+    {
+      if (n % p == 0)
+        return n == p;
+    }
+    if (n < 37 * 37)
+      return true;
 
-    // Make sure primes list is filled up to the needed point
-    if (highestValue < sqrt + 1)
-      findMorePrimesTo(sqrt + 1);
-    if (highestValue > n)
-      return Collections.binarySearch(primes, (Long)n) >= 0;
+    long[] witnesses = n < 4759123141L ? WITNESSES_32 : n < 341550071728321L ? WITNESSES_48 : WITNESSES_64;
+    Montgomery mont = new Montgomery(n);
+    long one = mont.one;
+    long minusOne = n - one;
+    int s = Long.numberOfTrailingZeros(n - 1);
+    long d = (n - 1) >> s;
 
-    // See if it is composite to any previous prime
-    boolean prime = true;
-    int place = 0;
-    long fac = 0;
-    while (prime && fac < sqrt)
+    for (long a : witnesses)
     {
-      fac = primes.get(place++);
-      if (n % fac == 0 && fac != n)
-        prime = false;
+      long x = mont.pow(mont.toMont(a), d);
+      if (x == one || x == minusOne)
+        continue;
+      boolean composite = true;
+      for (int r = 1; r < s && composite; r++)
+      {
+        x = mont.multiply(x, x);
+        if (x == minusOne)
+          composite = false;
+      }
+      if (composite)
+        return false;
     }
-
-    // And return if it is prime or not.
-    return prime;
+    return true;
   }
 
+  /**
+   * Checks to see if an integer is a power of a single prime.
+   *
+   * @param n Number checked
+   * @return the prime p if n = p^k for some k &gt;= 1, or 0 if it is not.
+   */
   public static long isPowerOfPrime(long n)
   {
     if (isPrime(n))
       return n;
-    if (primes.size()>logPrime.size())
-      for (int i = logPrime.size(); i<primes.size(); i++)
-        logPrime.add(i,Math.log(primes.get(i)));
-    long sqrt = Math.round(Math.sqrt(n));
-    double log = Math.log(n);
-    double pow;
-    for (int i = 0; getPrime(i)<sqrt; i++)
-    {
-      pow = log / logPrime.get(i);
-      if (Math.abs(pow-((long)pow))<0.0001) // Todo: Maybe make more efficent?
-      {
-        if (factorQuantity(n, getPrime(i)) == Math.round(pow))
-          return getPrime(i);
-      }
-    }
+    long[] factors = getPrimeFactors(n);
+    if (factors.length > 0 && factors[0] == factors[factors.length - 1])
+      return factors[0];
     return 0L;
   }
 
   public static long getPrime(int n)
   {
-    if (primes.size() <= n)
-      findNMorePrimes(n - primes.size()+1);
-    return primes.get(n);
+    Table t = table;
+    if (t.count <= n)
+      t = tableWithCount(n + 1L);
+    return t.primeAt(n);
   }
 
+  /**
+   * Returns the place of a prime in the list of primes, so that getPrime(getPrimePlace(p)) == p.
+   * Primes within the cached table are found by binary search; larger ones are counted
+   * with {@link #countPrimes(long)} without growing the table.
+   *
+   * @param p A prime.
+   * @return the 0-based index of p.
+   * @throws IllegalArgumentException if p is not prime.
+   * @throws ArithmeticException if the index does not fit in an int, that is for p above
+   *                             {@value #LAST_INT_PLACE_PRIME}. This is checked before any counting.
+   */
   public static int getPrimePlace(long p)
   {
     if (!isPrime(p))
       throw new IllegalArgumentException("The passed long is not prime!");
-    return primes.indexOf(p);
+    Table t = table;
+    if (p <= t.highestValue)
+      return t.binarySearch(p);
+    if (p > LAST_INT_PLACE_PRIME)
+      throw new ArithmeticException("The index of " + p + " does not fit in an int!");
+    return (int) (countPrimes(p) - 1);
+  }
+
+  /**
+   * Prime counting function, pi(x): the number of primes less than or equal to x.
+   * Values within the cached table are answered by binary search. Larger values are counted
+   * with Lucy Hedgehog's variant of the Legendre/Meissel sieve in O(x^(3/4)) time and
+   * O(sqrt(x)) memory, without growing the table (about a second for 10^12).
+   *
+   * @param x Upper bound, at most {@value #MAX_COUNTABLE}.
+   * @return the number of primes up to x.
+   */
+  public static long countPrimes(long x)
+  {
+    if (x < 2)
+      return 0;
+    Table t = table;
+    if (x <= t.highestValue)
+    {
+      int index = t.binarySearch(x);
+      return index >= 0 ? index + 1 : -index - 1;
+    }
+    if (x > MAX_COUNTABLE)
+      throw new IllegalArgumentException("Can only count primes up to " + MAX_COUNTABLE + "!");
+
+    long r = (long) Math.sqrt(x);
+    while (r * r > x)
+      r--;
+    while ((r + 1) * (r + 1) <= x)
+      r++;
+    int root = (int) r;
+
+    // small[v] counts the survivors up to v, large[i] the survivors up to x / i.
+    // Survivors start as every number from 2 up, and lose the multiples of each prime p in turn.
+    long[] small = new long[root + 1];
+    long[] large = new long[root + 1];
+    for (int v = 1; v <= root; v++)
+    {
+      small[v] = v - 1;
+      large[v] = x / v - 1;
+    }
+    for (int p = 2; p <= root; p++)
+    {
+      if (small[p] == small[p - 1])
+        continue; // p is not prime
+      long below = small[p - 1];
+      long square = (long) p * p;
+      long end = Math.min(root, x / square);
+      for (int i = 1; i <= end; i++)
+      {
+        long d = (long) i * p;
+        large[i] -= (d <= root ? large[(int) d] : small[(int) (x / d)]) - below;
+      }
+      for (int v = root; v >= square; v--)
+        small[v] -= small[v / p] - below;
+    }
+    return large[1];
+  }
+
+  /**
+   * Returns the n-th prime (0-based, like {@link #getPrime(int)}) without storing every prime
+   * before it. Past the cached table, pi() is taken at an analytic estimate of the answer and
+   * only the short stretch between the estimate and the answer is sieved.
+   *
+   * @param n Index of the prime, 0 for 2.
+   * @return the n-th prime.
+   */
+  public static long nthPrime(long n)
+  {
+    if (n < 0)
+      throw new IllegalArgumentException("There is no prime before 2!");
+    Table t = table;
+    if (n < t.count)
+      return t.primeAt((int) n);
+    if (n < 1 << 16)
+      return getPrime((int) n);
+
+    // p(n) ~ n (ln n + ln ln n - 1 + (ln ln n - 2) / ln n), for the 1-based n
+    double k = n + 1;
+    double ln = Math.log(k);
+    double lnln = Math.log(ln);
+    long estimate = (long) (k * (ln + lnln - 1 + (lnln - 2) / ln)) | 1;
+    long index = countPrimes(estimate) - 1;
+
+    // Walk from the estimate one sieve window at a time until the n-th prime is reached
+    boolean[] composite = new boolean[SEGMENT_ODDS];
+    if (index < n)
+    {
+      for (long first = estimate + 2; ; first += SEGMENT_SPAN)
+      {
+        sieveOdds(first, SEGMENT_ODDS, composite);
+        for (int i = 0; i < SEGMENT_ODDS; i++)
+          if (!composite[i] && ++index == n)
+            return first + 2L * i;
+      }
+    }
+    for (long last = estimate; ; last -= SEGMENT_SPAN)
+    {
+      long first = last - SEGMENT_SPAN + 2;
+      sieveOdds(first, SEGMENT_ODDS, composite);
+      for (int i = SEGMENT_ODDS - 1; i >= 0; i--)
+        if (!composite[i] && index-- == n)
+          return first + 2L * i;
+    }
   }
 
   /**
    * Returns the nearest prime to a given value. If two are equidistant, returns the lowest one.
-   * @param val
-   * @return
+   * Only the primes on either side of val are looked for, so the table is not grown to val.
+   *
+   * @param val Value to find the nearest prime to.
+   * @return the prime closest to val (2 for anything below 2).
    */
   public static long nearestPrime(long val)
   {
+    if (val < 2)
+      return 2;
     if (isPrime(val))
       return val;
+    long primeBelow = previousPrime(val);
+    if (val > LARGEST_LONG_PRIME)
+      return primeBelow;
+    long primeAbove = nextPrime(val);
+
+    return (val - primeBelow <= primeAbove - val) ? primeBelow : primeAbove;
+  }
+
+  /**
+   * Returns the smallest prime greater than val. Answered from the table when it reaches that
+   * far; otherwise the odd numbers past val are tested in turn, in O(gap * log^3 val).
+   *
+   * @param val Value to start after.
+   * @return the next prime above val.
+   * @throws IllegalArgumentException if there is no larger prime that fits in a long.
+   */
+  public static long nextPrime(long val)
+  {
     if (val < 2)
       return 2;
-    findMorePrimesTo(val);
-    int suggestedIndex = -(1 + Collections.binarySearch(primes, val));
-    long primeAbove = getPrime(suggestedIndex);
-    long primeBelow = getPrime(suggestedIndex - 1);
-    //System.out.println("{"+primeBelow+", "+val+", "+primeAbove+"}");
+    Table t = table;
+    if (val < t.highestValue)
+    {
+      int index = t.binarySearch(val + 1);
+      int place = index >= 0 ? index : -index - 1;
+      if (place < t.count)
+        return t.primeAt(place);
+    }
+    if (val >= LARGEST_LONG_PRIME)
+      throw new IllegalArgumentException("There is no prime above " + val + " that fits in a long!");
+    long n = (val + 1) | 1;
+    while (!isPrime(n))
+      n += 2;
+    return n;
+  }
 
-    return (val - primeBelow <= primeAbove - val) ? primeBelow : primeAbove;
+  /**
+   * Returns the largest prime less than val. Answered from the table when val is within it;
+   * otherwise the odd numbers below val are tested in turn, in O(gap * log^3 val).
+   *
+   * @param val Value to start below.
+   * @return the previous prime below val.
+   * @throws IllegalArgumentException if val is 2 or less.
+   */
+  public static long previousPrime(long val)
+  {
+    if (val <= 2)
+      throw new IllegalArgumentException("There is no prime below " + val + "!");
+    Table t = table;
+    if (val - 1 <= t.highestValue)
+    {
+      int index = t.binarySearch(val - 1);
+      return t.primeAt(index >= 0 ? index : -index - 2);
+    }
+    long n = ((val - 1) & 1) == 0 ? val - 2 : val - 1;
+    while (n > 2 && !isPrime(n))
+      n -= 2;
+    return n > 2 ? n : 2;
   }
 
-  // up to the value of n
+  /**
+   * Grows the table until every prime up to (at least) n is stored.
+   * The table is extended a whole sieve segment at a time, so highestValue
+   * may end up somewhat past n.
+   *
+   * @param n Value the table should reach.
+   * @throws IllegalArgumentException if n is past the largest value the table can hold (2^32 - 1).
+   */
   public static void findMorePrimesTo(long n)
   {
-    while (highestValue < n)
-      findNMorePrimes(1);
-    //findNMorePrimes(1);
+    tableTo(n);
   }
 
+  /**
+   * Grows the table by at least n more primes.
+   *
+   * @param n Minimum quantity of primes to add.
+   * @throws IllegalArgumentException if that many primes would be past the largest value the table can hold.
+   */
   public static void findNMorePrimes(int n)
   {
-    if (highestValue == 0)
+    tableWithCount((long) table.count + n);
+  }
+
+  /**
+   * Returns a snapshot holding every prime up to at least n, extending the table first if needed.
+   */
+  private static Table tableTo(long n)
+  {
+    Table t = table;
+    if (t.highestValue >= n)
+      return t;
+    if (n > MAX_TABLE_VALUE)
+      throw new IllegalArgumentException("The prime table only holds primes up to " + MAX_TABLE_VALUE + "!");
+    synchronized (growLock)
     {
-      primes.add(2L);
-      highestValue = 2;
+      while ((t = table).highestValue < n)
+        sieveNextSegment();
     }
+    return t;
+  }
 
-    long i = highestValue;
-    int numFound = 0;
-    while (numFound < n)
+  /**
+   * Returns a snapshot holding at least count primes, extending the table first if needed.
+   */
+  private static Table tableWithCount(long count)
+  {
+    Table t = table;
+    if (t.count >= count)
+      return t;
+    synchronized (growLock)
     {
-      int sqrt = (int) Math.sqrt(++i);
-      boolean found = false;
-      int f = 0;
-      long val = 0;
-      while (!found && val < sqrt)
+      while ((t = table).count < count)
       {
-        val = primes.get(f++);
-        if (i % val == 0)
-          found = true;
+        if (t.highestValue >= MAX_TABLE_VALUE)
+          throw new IllegalArgumentException("The prime table only holds primes up to " + MAX_TABLE_VALUE + "!");
+        sieveNextSegment();
       }
-      if (!found)
+    }
+    return t;
+  }
+
+  /**
+   * Sieves the next window of odd numbers past highestValue using the primes
+   * already in the table, and publishes a snapshot with every prime found.
+   * Every prime up to highestValue is always in the table, so a window can
+   * safely reach up to highestValue squared.
+   * Must be called while holding growLock.
+   */
+  private static void sieveNextSegment()
+  {
+    Table t = table;
+    if (t.highestValue < 2)
+    {
+      t.primes[0] = 2;
+      t = table = new Table(t.primes, 1, 2);
+    }
+
+    long highestValue = t.highestValue;
+    long low = highestValue + 1;
+    long high = Math.min(low + SEGMENT_SPAN - 1, MAX_TABLE_VALUE);
+    if (highestValue < high / highestValue)
+      high = highestValue * highestValue;
+
+    // Index i of the window stands for the odd number first + 2i
+    long first = low | 1;
+    int count = (int) ((high - first) / 2 + 1);
+    boolean[] composite = sieveWindow;
+    markComposites(t, first, count, composite, MAX_TABLE_VALUE);
+
+    // Slots past t.count are never read through t, so they can be filled in place
+    int[] primes = growFor(t, count);
+    int heapCount = t.count - t.mappedCount;
+    for (int i = 0; i < count; i++)
+      if (!composite[i])
+        primes[heapCount++] = (int) (first + 2L * i);
+    table = t.extend(primes, t.mappedCount + heapCount, high);
+  }
+
+  /**
+   * Flags, in composite, which of the count odd numbers first, first + 2, ... have an odd
+   * prime factor below them. base must hold every prime up to the square root of the last one,
+   * unless factors past maxPrime are being left for the caller to rule out.
+   */
+  private static void markComposites(Table base, long first, int count, boolean[] composite, long maxPrime)
+  {
+    Arrays.fill(composite, 0, count, false);
+    long high = first + 2L * (count - 1);
+
+    // Cross off odd multiples of every odd base prime up to sqrt(high)
+    for (int i = 1; i < base.count; i++)
+    {
+      long p = base.primeAt(i);
+      if (p > high / p || p > maxPrime)
+        break;
+      // Offset from first to the first odd multiple of p past p itself (kept as an offset to avoid overflow)
+      long offset;
+      if (p * p >= first)
+        offset = p * p - first;
+      else
       {
-        primes.add(i);
-        numFound++;
+        offset = (p - first % p) % p;
+        if ((offset & 1) == 1)
+          offset += p;
       }
+      for (long m = offset >> 1; m < count; m += p)
+        composite[(int) m] = true;
     }
-    highestValue = i;
   }
 
-  public static HashMap<Long, Integer> getPrimeFactorsAsMap(long composite)
+  /**
+   * Flags which of the count odd numbers first, first + 2, ... are composite, growing the table
+   * only as far as the square root of the last one. Used to sieve windows that are never added
+   * to the table.
+   */
+  static void sieveOdds(long first, int count, boolean[] composite)
   {
-    if (isPrime(composite))
+    long last = first + 2L * (count - 1);
+    long root = (long) Math.sqrt(last) + 1;
+    markComposites(tableTo(Math.min(root, WINDOW_BASE_LIMIT)), first, count, composite, WINDOW_BASE_LIMIT);
+
+    // Past the limit, crossing off every base prime costs more than testing the few survivors
+    if (root > WINDOW_BASE_LIMIT)
+      for (int i = 0; i < count; i++)
+        if (!composite[i] && !millerRabin(first + 2L * i))
+          composite[i] = true;
+  }
+
+  /**
+   * Streams the primes in [lo, hi) in ascending order. The range is sieved lazily one window at
+   * a time, so memory stays bounded however long the range is, and the shared table only grows
+   * to sqrt(hi). The stream can be made parallel, which splits the range between threads.
+   *
+   * @param lo Lowest value to include.
+   * @param hi Value to stop before.
+   * @return the primes in the range.
+   */
+  public static LongStream primes(long lo, long hi)
+  {
+    return StreamSupport.longStream(new PrimeSpliterator(lo, hi), false);
+  }
+
+  /**
+   * Iterates the primes in [lo, hi) in ascending order, sieving lazily like {@link #primes(long, long)}.
+   *
+   * @param lo Lowest value to include.
+   * @param hi Value to stop before.
+   * @return an iterator over the primes in the range.
+   */
+  public static PrimitiveIterator.OfLong primeIterator(long lo, long hi)
+  {
+    return Spliterators.iterator(new PrimeSpliterator(lo, hi));
+  }
+
+  /**
+   * Returns t's array if it has room for extra more primes past t.count, or a larger copy of it.
+   */
+  private static int[] growFor(Table t, int extra)
+  {
+    int[] primes = t.primes;
+    long needed = (long) t.count - t.mappedCount + extra;
+    if (needed > primes.length)
+      primes = Arrays.copyOf(primes, (int) Math.min(Math.max(needed, primes.length + (primes.length >> 1)), Integer.MAX_VALUE - 8));
+    return primes;
+  }
+
+  /**
+   * Grows the table to cover every prime up to (at least) limit, sieving on several cores.
+   * The base primes up to sqrt(limit) are found first, then the rest of the range is cut into
+   * disjoint runs of sieve windows that a ForkJoinPool sieves in parallel. The runs are merged
+   * into the table in order, so the result is identical to {@link #findMorePrimesTo(long)}.
+   *
+   * @param limit       Value the table should reach.
+   * @param parallelism Number of threads to sieve with.
+   * @throws IllegalArgumentException if limit is past the largest value the table can hold (2^32 - 1).
+   */
+  public static void warmUpTo(long limit, int parallelism)
+  {
+    if (parallelism <= 1 || limit <= table.highestValue)
     {
-      HashMap<Long, Integer> ret = new HashMap<Long, Integer>();
-      ret.put(composite,1);
-      return ret;
+      findMorePrimesTo(limit);
+      return;
     }
-    else
-      if (compositeFactorizations.containsKey(composite))
-        return (HashMap<Long, Integer>) compositeFactorizations.get(composite).clone();
+    if (limit > MAX_TABLE_VALUE)
+      throw new IllegalArgumentException("The prime table only holds primes up to " + MAX_TABLE_VALUE + "!");
 
-    HashMap<Long, Integer> map = new HashMap<>();
-    long sqrt = (long) Math.sqrt(composite);
-    long p = 0;
-    for (int i = 0; p<sqrt; i++)
-    {
-      p = getPrime(i);
-      if (hasFactor(composite, p))
-      {
-        int facQuant = factorQuantity(composite, p);
-        map.put(p, facQuant);
-        composite /= Math.round(Math.pow(p,facQuant));
-        long primePow = isPowerOfPrime(composite);
-        if (primePow>0)
-        {
-          map.put(primePow, factorQuantity(composite,primePow));
-          composite = 1;
-        }
-        sqrt = (long) Math.sqrt(composite);
+    // The last window may run up to one window past limit
+    tableTo(Math.min((long) Math.sqrt(limit + SEGMENT_SPAN) + 1, MAX_TABLE_VALUE));
+    synchronized (growLock)
+    {
+      Table t = table;
+      if (t.highestValue >= limit)
+        return;
+      long start = t.highestValue + 1;
+      int windows = (int) ((limit - start + SEGMENT_SPAN) / SEGMENT_SPAN);
+      int tasks = (windows + WINDOWS_PER_TASK - 1) / WINDOWS_PER_TASK;
+      int[][] found = new int[tasks][];
+
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try
+      {
+        pool.invoke(new SieveTask(t, start, windows, found, 0, tasks));
       }
+      finally
+      {
+        pool.shutdown();
+      }
+
+      int total = 0;
+      for (int[] run : found)
+        total += run.length;
+      int[] primes = growFor(t, total);
+      int heapCount = t.count - t.mappedCount;
+      for (int[] run : found)
+      {
+        System.arraycopy(run, 0, primes, heapCount, run.length);
+        heapCount += run.length;
+      }
+      table = t.extend(primes, t.mappedCount + heapCount, Math.min(start - 1 + windows * SEGMENT_SPAN, MAX_TABLE_VALUE));
+    }
+  }
+
+  /**
+   * Saves the prime table to a file so a later run can {@link #loadTable(Path) load} it instead
+   * of sieving again. If the file already holds part of this table, only the primes found since
+   * are appended to it.
+   *
+   * @param file File to write (see {@link PrimeTableFile} for the format).
+   * @throws IOException if the file can not be written, or holds a larger table.
+   */
+  public static void saveTable(Path file) throws IOException
+  {
+    synchronized (fileLock)
+    {
+      // Taken inside the lock, so concurrent saves write growing snapshots in order
+      Table t = table;
+      PrimeTableFile.save(file, t.count, t.highestValue, t::rawAt);
+    }
+  }
+
+  /**
+   * Replaces the prime table with one saved by {@link #saveTable(Path)}, if it covers more than
+   * the current one. The file is memory mapped rather than read, so lookups are served straight
+   * from the page cache; primes found past its end are kept on the heap as usual.
+   *
+   * @param file File to load.
+   * @return if the table was replaced.
+   * @throws IOException if the file can not be read, is not a prime table, or fails its checksum.
+   */
+  public static boolean loadTable(Path file) throws IOException
+  {
+    PrimeTableFile loaded = PrimeTableFile.map(file);
+    synchronized (growLock)
+    {
+      if (loaded.getHighestValue() <= table.highestValue)
+        return false;
+      table = new Table(loaded.getPrimes(), loaded.getCount(), new int[1024], loaded.getCount(), loaded.getHighestValue());
+      return true;
     }
-    compositeFactorizations.put(composite, (HashMap<Long, Integer>) map.clone());
+  }
+
+  /**
+   * Factors an integer into its prime factors.
+   * Factors of n at or below {@value #TRIAL_DIVISION_LIMIT} are found by trial division,
+   * and larger ones by Pollard-rho (Brent's variant), with Miller-Rabin deciding when a
+   * cofactor is prime.
+   *
+   * @param composite Number to factor
+   * @return map from each prime factor to how many times it divides composite (empty for values below 2).
+   */
+  public static HashMap<Long, Integer> getPrimeFactorsAsMap(long composite)
+  {
+    HashMap<Long, Integer> map = new HashMap<>();
+    for (long p : getPrimeFactors(composite))
+      map.merge(p, 1, Integer::sum);
     return map;
   }
-}
 
+  /**
+   * Factors an integer into its prime factors without boxing.
+   *
+   * @param n Number to factor
+   * @return every prime factor of n, repeated by multiplicity, in ascending order (empty for values below 2).
+   */
+  public static long[] getPrimeFactors(long n)
+  {
+    if (n < 2)
+      return new long[0];
+    SmallestPrimeFactors spf = smallestFactors;
+    if (spf != null && n <= spf.getBound())
+      return spf.factor((int) n);
+    if (isPrime(n))
+      return new long[]{n};
+    long[] cached = compositeFactorizations.get(n);
+    if (cached != null)
+      return cached.clone();
+
+    long composite = n;
+    long[] factors = new long[64];
+    int count = 0;
+
+    // Tier 1: trial division by the small primes
+    Table t = tableTo(TRIAL_DIVISION_LIMIT);
+    for (int i = 0; i < t.count; i++)
+    {
+      long p = t.primeAt(i);
+      // The table may reach far past the limit once warmed up; Pollard-rho is cheaper beyond it
+      if (p > TRIAL_DIVISION_LIMIT || p * p > n)
+        break;
+      while (n % p == 0)
+      {
+        factors[count++] = p;
+        n /= p;
+      }
+    }
 
+    // Tier 2: what is left has no factor below the limit, so it is 1, prime, or split by Pollard-rho
+    if (n > 1)
+      count = splitCofactor(n, factors, count);
 
+    Arrays.sort(factors, 0, count);
+    long[] ret = Arrays.copyOf(factors, count);
+    compositeFactorizations.put(composite, ret.clone());
+    return ret;
+  }
 
+  /**
+   * Returns the cache of composite factorizations used by {@link #getPrimeFactors(long)},
+   * to read its hit, miss and eviction counts or change its size limits.
+   */
+  public static FactorizationCache getFactorizationCache()
+  {
+    return compositeFactorizations;
+  }
 
+  /**
+   * Factors every value of an array into one flat buffer, without boxing.
+   * The factors of values[i] are written in ascending order to out[offsets[i]] through
+   * out[offsets[i + 1] - 1]. Values covered by the smallest prime factor table are factored
+   * straight from it without allocating.
+   *
+   * @param values  Numbers to factor
+   * @param out     Buffer receiving every factor
+   * @param offsets Receives where each value's factors start, plus the end; length must be values.length + 1
+   * @return the total number of factors written.
+   * @throws IllegalArgumentException if offsets is the wrong length or out is too small.
+   */
+  public static int getPrimeFactors(long[] values, long[] out, int[] offsets)
+  {
+    if (offsets.length != values.length + 1)
+      throw new IllegalArgumentException("offsets must be one longer than values!");
+    SmallestPrimeFactors spf = smallestFactors;
+    long[] scratch = new long[64];
+    int pos = 0;
+    for (int i = 0; i < values.length; i++)
+    {
+      offsets[i] = pos;
+      long n = values[i];
+      int count;
+      long[] factors = scratch;
+      if (n < 2)
+        count = 0;
+      else if (spf != null && n <= spf.getBound())
+        count = spf.factorInto((int) n, scratch, 0);
+      else
+      {
+        factors = getPrimeFactors(n);
+        count = factors.length;
+      }
+      if (out.length - pos < count)
+        throw new IllegalArgumentException("The result buffer is too small to hold every factor!");
+      System.arraycopy(factors, 0, out, pos, count);
+      pos += count;
+    }
+    offsets[values.length] = pos;
+    return pos;
+  }
+
+  /**
+   * Builds a smallest prime factor table covering every value up to bound, and uses it from
+   * then on to factor those values in O(number of factors). Costs 4 bytes per value covered.
+   *
+   * @param bound Largest value to cover.
+   * @return the table built.
+   */
+  public static SmallestPrimeFactors enableSmallestFactorTable(int bound)
+  {
+    SmallestPrimeFactors spf = new SmallestPrimeFactors(bound);
+    smallestFactors = spf;
+    return spf;
+  }
+
+  /**
+   * Stops using (and lets go of) the smallest prime factor table.
+   */
+  public static void disableSmallestFactorTable()
+  {
+    smallestFactors = null;
+  }
+
+  /**
+   * Appends the prime factors of n (odd, with no factor at or below the trial division limit) to factors.
+   *
+   * @return the new number of factors stored.
+   */
+  private static int splitCofactor(long n, long[] factors, int count)
+  {
+    if (n < TRIAL_DIVISION_LIMIT * TRIAL_DIVISION_LIMIT || millerRabin(n))
+    {
+      factors[count++] = n;
+      return count;
+    }
+    long d = pollardBrent(n);
+    count = splitCofactor(d, factors, count);
+    return splitCofactor(n / d, factors, count);
+  }
 
+  /**
+   * Finds a non-trivial factor of an odd composite n using Brent's variant of Pollard-rho.
+   * Differences are accumulated into a product so that only one gcd is taken per batch.
+   */
+  private static long pollardBrent(long n)
+  {
+    Montgomery mont = new Montgomery(n);
+    for (long c = 1; ; c++)
+    {
+      long cm = mont.toMont(c);
+      long x = 0;
+      long y = mont.toMont(2);
+      long ys = y;
+      long q = mont.one;
+      long g = 1;
+
+      for (long r = 1; g == 1; r <<= 1)
+      {
+        x = y;
+        for (long i = 0; i < r; i++)
+          y = mont.addMod(mont.multiply(y, y), cm);
+        for (long k = 0; k < r && g == 1; k += POLLARD_BATCH)
+        {
+          ys = y;
+          for (long i = 0; i < Math.min(POLLARD_BATCH, r - k); i++)
+          {
+            y = mont.addMod(mont.multiply(y, y), cm);
+            q = mont.multiply(q, Math.abs(x - y));
+          }
+          g = gcd(q, n);
+        }
+      }
 
+      // The batch overshot; step back through it one gcd at a time
+      if (g == n)
+      {
+        do
+        {
+          ys = mont.addMod(mont.multiply(ys, ys), cm);
+          g = gcd(Math.abs(x - ys), n);
+        }
+        while (g == 1);
+      }
+      if (g != n)
+        return g;
+    }
+  }
 
+  /**
+   * Immutable view of the prime table: count primes holding every prime up
+   * to highestValue, stored as unsigned 32 bit values. The first mappedCount
+   * come from a memory mapped table file (if any) and the rest from primes.
+   * Later snapshots may share the array but only ever write past count.
+   */
+  private static class Table
+  {
+    final IntBuffer mapped;
+    final int mappedCount;
+    final int[] primes;
+    final int count;
+    final long highestValue;
 
+    Table(int[] primes, int count, long highestValue)
+    {
+      this(null, 0, primes, count, highestValue);
+    }
 
+    Table(IntBuffer mapped, int mappedCount, int[] primes, int count, long highestValue)
+    {
+      this.mapped = mapped;
+      this.mappedCount = mappedCount;
+      this.primes = primes;
+      this.count = count;
+      this.highestValue = highestValue;
+    }
 
+    /**
+     * Returns the next snapshot, keeping this one's mapped primes in front of the given array.
+     */
+    Table extend(int[] primes, int count, long highestValue)
+    {
+      return new Table(mapped, mappedCount, primes, count, highestValue);
+    }
 
+    long primeAt(int index)
+    {
+      if (index >= count)
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+      return rawAt(index) & 0xFFFFFFFFL;
+    }
 
+    int rawAt(int index)
+    {
+      return index < mappedCount ? mapped.get(index) : primes[index - mappedCount];
+    }
 
+    /**
+     * Binary search over the stored primes, without boxing.
+     *
+     * @param key Value to look for.
+     * @return the index of key if it is stored; otherwise (-(insertion point) - 1).
+     */
+    int binarySearch(long key)
+    {
+      int low = 0;
+      int high = count - 1;
 
+      while (low <= high)
+      {
+        int mid = (low + high) >>> 1;
+        long midVal = rawAt(mid) & 0xFFFFFFFFL;
+
+        if (midVal < key)
+          low = mid + 1;
+        else if (midVal > key)
+          high = mid - 1;
+        else
+          return mid;
+      }
+      return -(low + 1);
+    }
+  }
 
+  /**
+   * Montgomery arithmetic modulo an odd n &lt; 2^63, so products never overflow.
+   * Values are kept in Montgomery form (x * 2^64 mod n) between calls.
+   */
+  private static class Montgomery
+  {
+    final long n;
+    final long nInverse; // n^-1 mod 2^64
+    final long one;      // 2^64 mod n
+    final long r2;       // 2^128 mod n
 
+    Montgomery(long n)
+    {
+      this.n = n;
+      long inv = n; // correct to 3 bits, each step doubles that
+      for (int i = 0; i < 5; i++)
+        inv *= 2 - n * inv;
+      nInverse = inv;
+      one = Long.remainderUnsigned(-1L, n) + 1;
+      long r = one;
+      for (int i = 0; i < 64; i++)
+        r = r >= n - r ? r - (n - r) : r + r;
+      r2 = r;
+    }
 
+    long multiply(long a, long b)
+    {
+      long hi = Math.multiplyHigh(a, b);
+      long m = a * b * nInverse;
+      long mnHi = Math.multiplyHigh(m, n) + ((m >> 63) & n);
+      long r = hi - mnHi;
+      return r < 0 ? r + n : r;
+    }
 
+    long addMod(long a, long b)
+    {
+      long r = a - (n - b);
+      return r < 0 ? r + n : r;
+    }
 
+    long toMont(long a)
+    {
+      return multiply(a % n, r2);
+    }
 
+    long pow(long base, long exponent)
+    {
+      long result = one;
+      while (exponent > 0)
+      {
+        if ((exponent & 1) == 1)
+          result = multiply(result, base);
+        base = multiply(base, base);
+        exponent >>= 1;
+      }
+      return result;
+    }
+  }
 
+  /**
+   * Sieves runs of WINDOWS_PER_TASK windows starting at start, splitting its range of runs in half
+   * until only one is left. Run r stores its primes in found[r].
+   */
+  private static class SieveTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
 
+    final Table base;
+    final long start;
+    final int windows;
+    final int[][] found;
+    final int fromRun;
+    final int toRun;
 
+    SieveTask(Table base, long start, int windows, int[][] found, int fromRun, int toRun)
+    {
+      this.base = base;
+      this.start = start;
+      this.windows = windows;
+      this.found = found;
+      this.fromRun = fromRun;
+      this.toRun = toRun;
+    }
 
+    @Override
+    protected void compute()
+    {
+      if (toRun - fromRun > 1)
+      {
+        int mid = (fromRun + toRun) >>> 1;
+        invokeAll(new SieveTask(base, start, windows, found, fromRun, mid),
+            new SieveTask(base, start, windows, found, mid, toRun));
+        return;
+      }
 
+      boolean[] composite = new boolean[SEGMENT_ODDS];
+      int[] run = new int[SEGMENT_ODDS];
+      int count = 0;
+      int lastWindow = Math.min(windows, (fromRun + 1) * WINDOWS_PER_TASK);
+      for (int w = fromRun * WINDOWS_PER_TASK; w < lastWindow; w++)
+      {
+        long low = start + w * SEGMENT_SPAN;
+        long high = Math.min(low + SEGMENT_SPAN - 1, MAX_TABLE_VALUE);
+        long first = low | 1;
+        int odds = (int) ((high - first) / 2 + 1);
+        markComposites(base, first, odds, composite, MAX_TABLE_VALUE);
+        if (count + odds > run.length)
+          run = Arrays.copyOf(run, Math.max(count + odds, run.length * 2));
+        for (int i = 0; i < odds; i++)
+          if (!composite[i])
+            run[count++] = (int) (first + 2L * i);
+      }
+      found[fromRun] = Arrays.copyOf(run, count);
+    }
+  }
+}
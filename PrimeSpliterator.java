@@ -0,0 +1,113 @@
+package util;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Spliterator over the primes in a range [lo, hi), sieving one window of odd numbers at a time.
+ * Only one window of flags is held at once, so a range of any length streams in bounded memory.
+ * Splitting hands the lower half of the range that is not yet sieved to a new spliterator.
+ *
+ * @see Prime#primes(long, long)
+ */
+public class PrimeSpliterator implements Spliterator.OfLong
+{
+  private static final int WINDOW_ODDS = 1 << 15;
+  // Ranges shorter than this are not worth handing to another thread
+  private static final long MIN_SPLIT = 1 << 20;
+
+  private long next;       // lowest value not yet sieved
+  private long end;        // value to stop before
+  private boolean[] composite;
+  private long windowFirst;
+  private int windowCount = 0;
+  private int windowPos = 0;
+
+  /**
+   * @param lo Lowest value to include.
+   * @param hi Value to stop before.
+   */
+  public PrimeSpliterator(long lo, long hi)
+  {
+    this.next = Math.max(lo, 2);
+    this.end = hi;
+  }
+
+  @Override
+  public boolean tryAdvance(LongConsumer action)
+  {
+    while (true)
+    {
+      while (windowPos < windowCount)
+      {
+        int i = windowPos++;
+        if (!composite[i])
+        {
+          action.accept(windowFirst + 2L * i);
+          return true;
+        }
+      }
+      if (next >= end)
+        return false;
+      if (next == 2)
+      {
+        next = 3;
+        action.accept(2);
+        return true;
+      }
+      sieveNextWindow();
+    }
+  }
+
+  // Sieves the odd numbers from next, up to one window's worth or the end of the range
+  private void sieveNextWindow()
+  {
+    long first = next | 1;
+    next = end;
+    if (first >= end)
+      return;
+    if (composite == null)
+      composite = new boolean[WINDOW_ODDS];
+    int count = (int) Math.min(WINDOW_ODDS, (end - 1 - first) / 2 + 1);
+    Prime.sieveOdds(first, count, composite);
+    windowFirst = first;
+    windowCount = count;
+    windowPos = 0;
+    next = first + 2L * count;
+  }
+
+  @Override
+  public Spliterator.OfLong trySplit()
+  {
+    // A half-read window stays here, and it comes before anything that could be split off
+    if (windowPos < windowCount || end - next < MIN_SPLIT)
+      return null;
+    long mid = next + (end - next) / 2;
+    PrimeSpliterator prefix = new PrimeSpliterator(next, mid);
+    next = mid;
+    return prefix;
+  }
+
+  /**
+   * Estimates the primes left from the prime number theorem.
+   */
+  @Override
+  public long estimateSize()
+  {
+    long remaining = Math.max(0, end - next);
+    return (windowCount - windowPos) / 2 + (long) (remaining / Math.log(Math.max(end, 3)));
+  }
+
+  @Override
+  public int characteristics()
+  {
+    return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+  }
+
+  @Override
+  public Comparator<? super Long> getComparator()
+  {
+    return null;
+  }
+}
@@ -0,0 +1,215 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * Binary file format used to persist the prime table between runs.
+ * <p>
+ * The file starts with a one page header: an 8 byte magic number, an int version, an int
+ * segment count, and then one 16 byte record per segment (int prime count, int CRC32 of the
+ * segment's bytes, long highest value covered). The primes themselves follow the header as one
+ * contiguous run of little-endian unsigned 32 bit values, so the whole run can be memory mapped
+ * and read in place. Saving a larger table appends its new primes as a further segment and only
+ * then updates the header, so an interrupted save leaves the old contents valid.
+ */
+public class PrimeTableFile
+{
+  private static final long MAGIC = 0x5052494D45544231L; // "PRIMETB1"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4096;
+  private static final int RECORD_BYTES = 16;
+  private static final int MAX_SEGMENTS = (HEADER_BYTES - 16) / RECORD_BYTES;
+  private static final int WRITE_CHUNK = 1 << 16;
+
+  private final IntBuffer primes;
+  private final int count;
+  private final long highestValue;
+
+  private PrimeTableFile(IntBuffer primes, int count, long highestValue)
+  {
+    this.primes = primes;
+    this.count = count;
+    this.highestValue = highestValue;
+  }
+
+  /**
+   * @return the stored primes, as unsigned 32 bit values backed by the mapped file.
+   */
+  public IntBuffer getPrimes()
+  {
+    return primes;
+  }
+
+  public int getCount()
+  {
+    return count;
+  }
+
+  /**
+   * @return the value up to which every prime is stored.
+   */
+  public long getHighestValue()
+  {
+    return highestValue;
+  }
+
+  /**
+   * Memory maps a prime table file and checks every segment against its checksum.
+   *
+   * @param file File written by {@link #save(Path, int, long, IntUnaryOperator)}.
+   * @return the mapped table.
+   * @throws IOException if the file can not be read, is not a prime table, or is corrupt.
+   */
+  public static PrimeTableFile map(Path file) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      Header header = readHeader(channel);
+      if (header == null)
+        throw new IOException(file + " is not a prime table file!");
+      long payloadBytes = 4L * header.count;
+      if (channel.size() < HEADER_BYTES + payloadBytes)
+        throw new IOException(file + " is shorter than its header says!");
+
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, payloadBytes);
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      int start = 0;
+      for (int s = 0; s < header.segments; s++)
+      {
+        CRC32 crc = new CRC32();
+        crc.update(mapped.slice(4 * start, 4 * header.segmentCounts[s]));
+        if ((int) crc.getValue() != header.segmentCrcs[s])
+          throw new IOException(file + " failed its checksum in segment " + s + "!");
+        start += header.segmentCounts[s];
+      }
+      return new PrimeTableFile(mapped.asIntBuffer(), header.count, header.highestValue);
+    }
+  }
+
+  /**
+   * Saves the first count primes of a table to a file. If the file already holds a prefix of
+   * them, only the missing primes are written, as a new segment.
+   *
+   * @param file         File to write.
+   * @param count        Number of primes to save.
+   * @param highestValue Value up to which those primes are every prime.
+   * @param primeBits    Returns the i-th prime as an unsigned 32 bit value.
+   * @throws IOException if the file can not be written, or holds a different table.
+   */
+  public static void save(Path file, int count, long highestValue, IntUnaryOperator primeBits) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE))
+    {
+      Header header = channel.size() == 0 ? new Header() : readHeader(channel);
+      if (header == null)
+        throw new IOException(file + " is not a prime table file!");
+      if (header.count > count || header.highestValue > highestValue)
+        throw new IOException(file + " already holds a larger table!");
+      // Its last stored prime must be ours too, or the new primes would extend some other table
+      if (header.count > 0 && readPrime(channel, header.count - 1) != primeBits.applyAsInt(header.count - 1))
+        throw new IOException(file + " holds a different table!");
+      if (header.highestValue == highestValue)
+        return;
+
+      // When the header is full, the new primes are folded into the last segment instead
+      int from = header.count;
+      if (header.segments == MAX_SEGMENTS)
+      {
+        header.segments--;
+        from -= header.segmentCounts[header.segments];
+      }
+
+      CRC32 crc = new CRC32();
+      ByteBuffer chunk = ByteBuffer.allocate(4 * WRITE_CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+      long position = HEADER_BYTES + 4L * from;
+      for (int i = from; i < count; )
+      {
+        chunk.clear();
+        int end = Math.min(count, i + WRITE_CHUNK);
+        for (; i < end; i++)
+          chunk.putInt(primeBits.applyAsInt(i));
+        chunk.flip();
+        crc.update(chunk.duplicate());
+        while (chunk.hasRemaining())
+          position += channel.write(chunk, position);
+      }
+      channel.force(false);
+
+      header.segmentCounts[header.segments] = count - from;
+      header.segmentCrcs[header.segments] = (int) crc.getValue();
+      header.segmentHighest[header.segments] = highestValue;
+      header.segments++;
+      header.count = count;
+      header.highestValue = highestValue;
+      writeHeader(channel, header);
+      channel.force(true);
+    }
+  }
+
+  // The i-th stored prime, as unsigned 32 bits
+  private static int readPrime(FileChannel channel, int i) throws IOException
+  {
+    ByteBuffer buf = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    long position = HEADER_BYTES + 4L * i;
+    while (buf.hasRemaining())
+      if (channel.read(buf, position + buf.position()) < 0)
+        throw new IOException("The prime table ends before its prime " + i + "!");
+    return buf.getInt(0);
+  }
+
+  // Returns null if the channel does not start with a prime table header
+  private static Header readHeader(FileChannel channel) throws IOException
+  {
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (buf.hasRemaining())
+      if (channel.read(buf, buf.position()) < 0)
+        return null;
+    buf.flip();
+    if (buf.getLong() != MAGIC || buf.getInt() != VERSION)
+      return null;
+    Header header = new Header();
+    header.segments = buf.getInt();
+    if (header.segments < 0 || header.segments > MAX_SEGMENTS)
+      return null;
+    for (int s = 0; s < header.segments; s++)
+    {
+      header.segmentCounts[s] = buf.getInt();
+      header.segmentCrcs[s] = buf.getInt();
+      header.segmentHighest[s] = buf.getLong();
+      header.count += header.segmentCounts[s];
+      header.highestValue = header.segmentHighest[s];
+    }
+    return header;
+  }
+
+  private static void writeHeader(FileChannel channel, Header header) throws IOException
+  {
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putLong(MAGIC).putInt(VERSION).putInt(header.segments);
+    for (int s = 0; s < header.segments; s++)
+      buf.putInt(header.segmentCounts[s]).putInt(header.segmentCrcs[s]).putLong(header.segmentHighest[s]);
+    buf.clear();
+    while (buf.hasRemaining())
+      channel.write(buf, buf.position());
+  }
+
+  private static class Header
+  {
+    int segments = 0;
+    int count = 0;
+    long highestValue = 0;
+    final int[] segmentCounts = new int[MAX_SEGMENTS];
+    final int[] segmentCrcs = new int[MAX_SEGMENTS];
+    final long[] segmentHighest = new long[MAX_SEGMENTS];
+  }
+}
@@ -0,0 +1,168 @@
+package util;
+
+import java.lang.reflect.Array;
+
+/**
+ * Concatenation and conversion of primitive arrays, specialized per element type so nothing is boxed.
+ * Each concat sizes its result once and fills it with one System.arraycopy per part.
+ * To treat several arrays as one without copying them at all, see {@link ArrayView}.
+ */
+public class PrimitiveArrays
+{
+  public static int[] concat(int[]... parts)
+  {
+    int[] ret = new int[totalLength(parts)];
+    int pos = 0;
+    for (int[] part : parts)
+    {
+      System.arraycopy(part, 0, ret, pos, part.length);
+      pos += part.length;
+    }
+    return ret;
+  }
+
+  public static long[] concat(long[]... parts)
+  {
+    long[] ret = new long[totalLength(parts)];
+    int pos = 0;
+    for (long[] part : parts)
+    {
+      System.arraycopy(part, 0, ret, pos, part.length);
+      pos += part.length;
+    }
+    return ret;
+  }
+
+  public static char[] concat(char[]... parts)
+  {
+    char[] ret = new char[totalLength(parts)];
+    int pos = 0;
+    for (char[] part : parts)
+    {
+      System.arraycopy(part, 0, ret, pos, part.length);
+      pos += part.length;
+    }
+    return ret;
+  }
+
+  public static byte[] concat(byte[]... parts)
+  {
+    byte[] ret = new byte[totalLength(parts)];
+    int pos = 0;
+    for (byte[] part : parts)
+    {
+      System.arraycopy(part, 0, ret, pos, part.length);
+      pos += part.length;
+    }
+    return ret;
+  }
+
+  public static double[] concat(double[]... parts)
+  {
+    double[] ret = new double[totalLength(parts)];
+    int pos = 0;
+    for (double[] part : parts)
+    {
+      System.arraycopy(part, 0, ret, pos, part.length);
+      pos += part.length;
+    }
+    return ret;
+  }
+
+  /**
+   * @return each char as its int value.
+   */
+  public static int[] toIntArray(char[] array)
+  {
+    int[] ret = new int[array.length];
+    for (int i = 0; i < array.length; i++)
+      ret[i] = array[i];
+    return ret;
+  }
+
+  /**
+   * @return each byte as a signed int.
+   */
+  public static int[] toIntArray(byte[] array)
+  {
+    int[] ret = new int[array.length];
+    for (int i = 0; i < array.length; i++)
+      ret[i] = array[i];
+    return ret;
+  }
+
+  /**
+   * @return each byte as an unsigned int, from 0 to 255.
+   */
+  public static int[] toUnsignedIntArray(byte[] array)
+  {
+    int[] ret = new int[array.length];
+    for (int i = 0; i < array.length; i++)
+      ret[i] = array[i] & 0xFF;
+    return ret;
+  }
+
+  /**
+   * @return the values as ints.
+   * @throws ArithmeticException if a value does not fit in an int.
+   */
+  public static int[] toIntArray(long[] array)
+  {
+    int[] ret = new int[array.length];
+    for (int i = 0; i < array.length; i++)
+      ret[i] = Math.toIntExact(array[i]);
+    return ret;
+  }
+
+  public static long[] toLongArray(int[] array)
+  {
+    long[] ret = new long[array.length];
+    for (int i = 0; i < array.length; i++)
+      ret[i] = array[i];
+    return ret;
+  }
+
+  public static double[] toDoubleArray(int[] array)
+  {
+    double[] ret = new double[array.length];
+    for (int i = 0; i < array.length; i++)
+      ret[i] = array[i];
+    return ret;
+  }
+
+  /**
+   * @return the values as doubles, rounded to the nearest double past 2^53.
+   */
+  public static double[] toDoubleArray(long[] array)
+  {
+    double[] ret = new double[array.length];
+    for (int i = 0; i < array.length; i++)
+      ret[i] = array[i];
+    return ret;
+  }
+
+  /**
+   * @return the chars of a string of text, one per element (the same as {@link String#toCharArray()} for strings).
+   */
+  public static char[] toCharArray(CharSequence text)
+  {
+    char[] ret = new char[text.length()];
+    if (text instanceof String)
+      ((String) text).getChars(0, ret.length, ret, 0);
+    else
+      for (int i = 0; i < ret.length; i++)
+        ret[i] = text.charAt(i);
+    return ret;
+  }
+
+  // Sum of the lengths of some arrays, which must fit in an array
+  static int totalLength(Object[] parts)
+  {
+    long ret = 0;
+    for (Object part : parts)
+      ret += Array.getLength(part);
+    if (ret > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException(ret + " elements do not fit in one array!");
+    return (int) ret;
+  }
+}
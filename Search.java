@@ -0,0 +1,243 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Binary searches over sorted primitive arrays.
+ * <p>
+ * The searches keep a base index and a remaining length that halves every step, whatever the
+ * comparisons say, so each step is one load and one conditional move rather than an unpredictable
+ * branch, and the number of steps depends only on the array's length. Comparisons never subtract,
+ * so keys far apart can not overflow. Doubles are ordered as by {@link Double#compare}, the order
+ * {@link java.util.Arrays#sort(double[])} leaves them in.
+ * <p>
+ * Because every key takes the same steps, the batched forms walk a block of keys in lockstep: the
+ * loads for different keys do not depend on each other, so their cache misses overlap instead of
+ * being paid one after another. Each key's base index is kept in its slot of the output array
+ * while its block is walked, so the batched forms need no scratch arrays. For tables much larger
+ * than the cache, see {@link EytzingerIndex}.
+ */
+public class Search
+{
+  // Keys searched in lockstep by the batched forms
+  private static final int BATCH = 8;
+  // Longer arrays are taken to be out of the cache between searches, so that every probe misses.
+  // On them the single-key searches load both places the next step may probe before the current
+  // compare picks one, so the next miss overlaps this one instead of following it.
+  private static final int CACHED_LENGTH = 1 << 17;
+  // Below this remaining length the probes left share a few cache lines
+  private static final int PRELOAD_STOP = 64;
+
+  /**
+   * @return the index of the first element of the sorted array that is at least key, or its length if there is none.
+   */
+  public static int lowerBound(long[] sorted, long key)
+  {
+    int len = sorted.length;
+    if (len == 0)
+      return 0;
+    int base = 0;
+    if (len > CACHED_LENGTH)
+    {
+      long mid = sorted[(len >>> 1) - 1];
+      while (len > PRELOAD_STOP)
+      {
+        int half = len >>> 1;
+        int q = (len - half) >>> 1;
+        long low = sorted[base + q - 1];
+        long high = sorted[base + half + q - 1];
+        boolean right = mid < key;
+        base = right ? base + half : base;
+        mid = right ? high : low;
+        len -= half;
+      }
+    }
+    while (len > 1)
+    {
+      int half = len >>> 1;
+      base = sorted[base + half - 1] < key ? base + half : base;
+      len -= half;
+    }
+    return sorted[base] < key ? base + 1 : base;
+  }
+
+  /**
+   * @return the index of the first element of the sorted array that is at least key, or its length if there is none.
+   */
+  public static int lowerBound(int[] sorted, int key)
+  {
+    int len = sorted.length;
+    if (len == 0)
+      return 0;
+    int base = 0;
+    if (len > CACHED_LENGTH)
+    {
+      int mid = sorted[(len >>> 1) - 1];
+      while (len > PRELOAD_STOP)
+      {
+        int half = len >>> 1;
+        int q = (len - half) >>> 1;
+        int low = sorted[base + q - 1];
+        int high = sorted[base + half + q - 1];
+        boolean right = mid < key;
+        base = right ? base + half : base;
+        mid = right ? high : low;
+        len -= half;
+      }
+    }
+    while (len > 1)
+    {
+      int half = len >>> 1;
+      base = sorted[base + half - 1] < key ? base + half : base;
+      len -= half;
+    }
+    return sorted[base] < key ? base + 1 : base;
+  }
+
+  /**
+   * @return the index of the first element of the sorted array that is at least key, or its length if there is none.
+   */
+  public static int lowerBound(double[] sorted, double key)
+  {
+    int len = sorted.length;
+    if (len == 0)
+      return 0;
+    long k = orderBits(key);
+    int base = 0;
+    if (len > CACHED_LENGTH)
+    {
+      double mid = sorted[(len >>> 1) - 1];
+      while (len > PRELOAD_STOP)
+      {
+        int half = len >>> 1;
+        int q = (len - half) >>> 1;
+        double low = sorted[base + q - 1];
+        double high = sorted[base + half + q - 1];
+        boolean right = orderBits(mid) < k;
+        base = right ? base + half : base;
+        mid = right ? high : low;
+        len -= half;
+      }
+    }
+    while (len > 1)
+    {
+      int half = len >>> 1;
+      base = orderBits(sorted[base + half - 1]) < k ? base + half : base;
+      len -= half;
+    }
+    return orderBits(sorted[base]) < k ? base + 1 : base;
+  }
+
+  /**
+   * Searches a sorted array, with the same contract as {@link java.util.Arrays#binarySearch(long[], long)},
+   * except that of several equal elements the first is found.
+   *
+   * @return the index of key, if it is in the array; otherwise (-(insertion point) - 1).
+   */
+  public static int binarySearch(long[] sorted, long key)
+  {
+    int i = lowerBound(sorted, key);
+    return i < sorted.length && sorted[i] == key ? i : -(i + 1);
+  }
+
+  /**
+   * @return the index of key, if it is in the array; otherwise (-(insertion point) - 1).
+   * @see #binarySearch(long[], long)
+   */
+  public static int binarySearch(int[] sorted, int key)
+  {
+    int i = lowerBound(sorted, key);
+    return i < sorted.length && sorted[i] == key ? i : -(i + 1);
+  }
+
+  /**
+   * @return the index of key, if it is in the array; otherwise (-(insertion point) - 1).
+   * @see #binarySearch(long[], long)
+   */
+  public static int binarySearch(double[] sorted, double key)
+  {
+    int i = lowerBound(sorted, key);
+    return i < sorted.length && orderBits(sorted[i]) == orderBits(key) ? i : -(i + 1);
+  }
+
+  /**
+   * Finds the lower bound of every key at once; out[i] receives lowerBound(sorted, keys[i]).
+   */
+  public static void lowerBounds(long[] sorted, long[] keys, int[] out)
+  {
+    int n = sorted.length;
+    for (int start = 0; start < keys.length; start += BATCH)
+    {
+      int end = Math.min(start + BATCH, keys.length);
+      Arrays.fill(out, start, end, 0);
+      if (n == 0)
+        continue;
+      for (int len = n; len > 1; )
+      {
+        int half = len >>> 1;
+        for (int i = start; i < end; i++)
+          out[i] = sorted[out[i] + half - 1] < keys[i] ? out[i] + half : out[i];
+        len -= half;
+      }
+      for (int i = start; i < end; i++)
+        out[i] = sorted[out[i]] < keys[i] ? out[i] + 1 : out[i];
+    }
+  }
+
+  /**
+   * Finds the lower bound of every key at once; out[i] receives lowerBound(sorted, keys[i]).
+   */
+  public static void lowerBounds(int[] sorted, int[] keys, int[] out)
+  {
+    int n = sorted.length;
+    for (int start = 0; start < keys.length; start += BATCH)
+    {
+      int end = Math.min(start + BATCH, keys.length);
+      Arrays.fill(out, start, end, 0);
+      if (n == 0)
+        continue;
+      for (int len = n; len > 1; )
+      {
+        int half = len >>> 1;
+        for (int i = start; i < end; i++)
+          out[i] = sorted[out[i] + half - 1] < keys[i] ? out[i] + half : out[i];
+        len -= half;
+      }
+      for (int i = start; i < end; i++)
+        out[i] = sorted[out[i]] < keys[i] ? out[i] + 1 : out[i];
+    }
+  }
+
+  /**
+   * Finds the lower bound of every key at once; out[i] receives lowerBound(sorted, keys[i]).
+   */
+  public static void lowerBounds(double[] sorted, double[] keys, int[] out)
+  {
+    int n = sorted.length;
+    for (int start = 0; start < keys.length; start += BATCH)
+    {
+      int end = Math.min(start + BATCH, keys.length);
+      Arrays.fill(out, start, end, 0);
+      if (n == 0)
+        continue;
+      for (int len = n; len > 1; )
+      {
+        int half = len >>> 1;
+        for (int i = start; i < end; i++)
+          out[i] = orderBits(sorted[out[i] + half - 1]) < orderBits(keys[i]) ? out[i] + half : out[i];
+        len -= half;
+      }
+      for (int i = start; i < end; i++)
+        out[i] = orderBits(sorted[out[i]]) < orderBits(keys[i]) ? out[i] + 1 : out[i];
+    }
+  }
+
+  /**
+   * @return a long that orders as Double.compare orders doubles: -0.0 below 0.0, and NaN above everything.
+   */
+  static long orderBits(double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+}
@@ -0,0 +1,98 @@
+package util;
+
+/**
+ * Table of the smallest prime factor of every integer up to a bound, built with a linear sieve.
+ * Once built, any value within the bound is factored with one table lookup and one division per
+ * prime factor, with no scan over a list of primes.
+ * The table costs 4 bytes per integer covered, so it is only built when asked for; see
+ * {@link Prime#enableSmallestFactorTable(int)}.
+ */
+public class SmallestPrimeFactors
+{
+  private final int[] spf;
+  private final int bound;
+
+  /**
+   * Builds the table in O(bound) time.
+   *
+   * @param bound Largest value the table covers.
+   */
+  public SmallestPrimeFactors(int bound)
+  {
+    if (bound < 1 || bound == Integer.MAX_VALUE)
+      throw new IllegalArgumentException("The bound must be between 1 and " + (Integer.MAX_VALUE - 1) + "!");
+    this.bound = bound;
+    spf = new int[bound + 1];
+
+    // Linear sieve: every composite is crossed off exactly once, by its smallest prime factor
+    int[] primes = new int[Math.max(16, (int) (1.26 * bound / Math.log(Math.max(bound, 3))))];
+    int primeCount = 0;
+    for (int i = 2; i <= bound; i++)
+    {
+      if (spf[i] == 0)
+      {
+        spf[i] = i;
+        primes[primeCount++] = i;
+      }
+      int limit = spf[i];
+      for (int j = 0; j < primeCount && primes[j] <= limit; j++)
+      {
+        long multiple = (long) i * primes[j];
+        if (multiple > bound)
+          break;
+        spf[(int) multiple] = primes[j];
+      }
+    }
+  }
+
+  /**
+   * @return the largest value this table covers.
+   */
+  public int getBound()
+  {
+    return bound;
+  }
+
+  /**
+   * @param n Value within the table, at least 2.
+   * @return the smallest prime factor of n.
+   */
+  public int smallestFactor(int n)
+  {
+    if (n < 2 || n > bound)
+      throw new IllegalArgumentException(n + " is not within the table (2 to " + bound + ")!");
+    return spf[n];
+  }
+
+  /**
+   * @param n Value within the table.
+   * @return every prime factor of n, repeated by multiplicity, in ascending order (empty for values below 2).
+   */
+  public long[] factor(int n)
+  {
+    long[] factors = new long[30];
+    int count = factorInto(n, factors, 0);
+    long[] ret = new long[count];
+    System.arraycopy(factors, 0, ret, 0, count);
+    return ret;
+  }
+
+  /**
+   * Writes the prime factors of n, in ascending order, into out starting at pos.
+   * A value within the table never has more than 30 prime factors.
+   *
+   * @return the position just past the last factor written.
+   */
+  public int factorInto(int n, long[] out, int pos)
+  {
+    if (n > bound)
+      throw new IllegalArgumentException(n + " is past the end of the table (" + bound + ")!");
+    while (n > 1)
+    {
+      int p = spf[n];
+      out[pos++] = p;
+      n /= p;
+    }
+    return pos;
+  }
+}
@@ -0,0 +1,169 @@
+package util;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * UTC ISO-8601 timestamps with millisecond precision, as in "2024-03-09T17:04:05.123Z".
+ * <p>
+ * The date part is worked out with java.time once per day and cached. The time of day is three
+ * fixed width pieces, "HH:", "mm:ss." and "SSSZ", each copied from a table holding every value the
+ * piece can take. Writing into a char[], or onto the end of a StringBuilder with room for it,
+ * creates no objects apart from the new day's prefix on the first call of each day. The cache is
+ * one immutable object behind a volatile field, so concurrent callers at most build the same day
+ * twice.
+ */
+public class Timestamps
+{
+  /** Characters in a timestamp, for years 0 to 9999. */
+  public static final int LENGTH = 24;
+
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+  private static final char[] PAIRS = new char[200];               // "00" to "99"
+  private static final char[] HOURS = new char[24 * 3];             // "00:" to "23:"
+  private static final char[] MINUTES_SECONDS = new char[3600 * 6]; // "00:00." to "59:59."
+  private static final char[] MILLIS = new char[1000 * 4];          // "000Z" to "999Z"
+  // Years outside 0 to 9999 take a sign or more digits
+  private static final DateTimeFormatter WIDE_YEARS = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+  static
+  {
+    for (int i = 0; i < 100; i++)
+    {
+      PAIRS[2 * i] = (char) ('0' + i / 10);
+      PAIRS[2 * i + 1] = (char) ('0' + i % 10);
+    }
+    for (int h = 0; h < 24; h++)
+    {
+      HOURS[3 * h] = PAIRS[2 * h];
+      HOURS[3 * h + 1] = PAIRS[2 * h + 1];
+      HOURS[3 * h + 2] = ':';
+    }
+    for (int s = 0; s < 3600; s++)
+    {
+      int minute = s / 60;
+      int second = s % 60;
+      MINUTES_SECONDS[6 * s] = PAIRS[2 * minute];
+      MINUTES_SECONDS[6 * s + 1] = PAIRS[2 * minute + 1];
+      MINUTES_SECONDS[6 * s + 2] = ':';
+      MINUTES_SECONDS[6 * s + 3] = PAIRS[2 * second];
+      MINUTES_SECONDS[6 * s + 4] = PAIRS[2 * second + 1];
+      MINUTES_SECONDS[6 * s + 5] = '.';
+    }
+    for (int m = 0; m < 1000; m++)
+    {
+      MILLIS[4 * m] = (char) ('0' + m / 100);
+      MILLIS[4 * m + 1] = PAIRS[2 * (m % 100)];
+      MILLIS[4 * m + 2] = PAIRS[2 * (m % 100) + 1];
+      MILLIS[4 * m + 3] = 'Z';
+    }
+  }
+
+  private static volatile Day day = new Day(0); // after PAIRS is filled
+
+  /**
+   * @return the instant as a UTC timestamp.
+   */
+  public static String format(long epochMillis)
+  {
+    Day d = dayOf(epochMillis);
+    if (d == null)
+      return WIDE_YEARS.format(Instant.ofEpochMilli(epochMillis));
+    char[] ret = new char[LENGTH];
+    write(d, epochMillis, ret, 0);
+    return new String(ret);
+  }
+
+  /**
+   * Appends the instant, as a UTC timestamp, to out.
+   */
+  public static StringBuilder format(long epochMillis, StringBuilder out)
+  {
+    Day d = dayOf(epochMillis);
+    if (d == null)
+      return out.append(WIDE_YEARS.format(Instant.ofEpochMilli(epochMillis)));
+    int ms = (int) (epochMillis - d.start);
+    return out.append(d.prefix)
+        .append(HOURS, hourStart(ms), 3)
+        .append(MINUTES_SECONDS, minuteSecondStart(ms), 6)
+        .append(MILLIS, milliStart(ms), 4);
+  }
+
+  /**
+   * Writes the instant, as a UTC timestamp, into dst from off.
+   *
+   * @return the index in dst just past the timestamp; it is {@link #LENGTH} chars long for years 0 to 9999.
+   */
+  public static int format(long epochMillis, char[] dst, int off)
+  {
+    Day d = dayOf(epochMillis);
+    if (d != null)
+      return write(d, epochMillis, dst, off);
+    String wide = WIDE_YEARS.format(Instant.ofEpochMilli(epochMillis));
+    wide.getChars(0, wide.length(), dst, off);
+    return off + wide.length();
+  }
+
+  private static int write(Day d, long epochMillis, char[] dst, int off)
+  {
+    int ms = (int) (epochMillis - d.start);
+    System.arraycopy(d.prefix, 0, dst, off, 11);
+    System.arraycopy(HOURS, hourStart(ms), dst, off + 11, 3);
+    System.arraycopy(MINUTES_SECONDS, minuteSecondStart(ms), dst, off + 14, 6);
+    System.arraycopy(MILLIS, milliStart(ms), dst, off + 20, 4);
+    return off + LENGTH;
+  }
+
+  // Where the pieces for the time ms into the day start in their tables
+  private static int hourStart(int ms)
+  {
+    return 3 * (ms / 3_600_000);
+  }
+
+  private static int minuteSecondStart(int ms)
+  {
+    return 6 * (ms / 1000 % 3600);
+  }
+
+  private static int milliStart(int ms)
+  {
+    return 4 * (ms % 1000);
+  }
+
+  // The cached day holding the instant, or null if its year does not have four digits
+  private static Day dayOf(long epochMillis)
+  {
+    Day d = day;
+    if (epochMillis - d.start >= 0 && epochMillis - d.start < MILLIS_PER_DAY)
+      return d;
+    d = new Day(Math.floorDiv(epochMillis, MILLIS_PER_DAY));
+    if (d.prefix == null)
+      return null;
+    day = d;
+    return d;
+  }
+
+  private static class Day
+  {
+    final long start;    // epoch millis at midnight
+    final char[] prefix; // "yyyy-MM-ddT"; null for years outside 0 to 9999
+
+    Day(long epochDay)
+    {
+      start = epochDay * MILLIS_PER_DAY;
+      LocalDate date = LocalDate.ofEpochDay(epochDay);
+      int year = date.getYear();
+      if (year < 0 || year > 9999)
+      {
+        prefix = null;
+        return;
+      }
+      prefix = new char[]{
+          PAIRS[2 * (year / 100)], PAIRS[2 * (year / 100) + 1], PAIRS[2 * (year % 100)], PAIRS[2 * (year % 100) + 1], '-',
+          PAIRS[2 * date.getMonthValue()], PAIRS[2 * date.getMonthValue() + 1], '-',
+          PAIRS[2 * date.getDayOfMonth()], PAIRS[2 * date.getDayOfMonth() + 1], 'T'};
+    }
+  }
+}
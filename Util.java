@@ -1,58 +1,41 @@
 package util;
 
-import apcslib.Format;
-
 import java.lang.reflect.Array;
+import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-
-import static util.Prime.getPrimeFactorsAsMap;
-import static util.Prime.isPrime;
+import java.util.PrimitiveIterator;
+import java.util.function.LongUnaryOperator;
 
 /**
  * Generic utility methods that could be used any number of times.
  */
 public class Util
 {
+  private static volatile ModularBinomial lastModularBinomial = null;
+  // Arrays at least this long are reduced in parallel by gcd(long...) and lcm(long...)
+  private static final int PARALLEL_REDUCTION_THRESHOLD = 1 << 16;
 
   /**
    * moneyValue - Converts a double value representing an amount of money
-   * in USD into the corresponding string value.
+   * in USD into the corresponding string value, rounded half even to the cent.
    * \nEx: moneyValue(7523.1) will return "$7,523.10"
    *
    * @param value Quantity of money in USD
    * @return String representation
+   * @see MoneyFormat
    */
   public static String moneyValue(double value)
   {
-    // Add the values in the hundreds place and below to the string
-    String ret = Format.left(value % 1000, 4, 2);
-
-    // Previous variable for leading zeros check
-    int prev = (int) value;
-    // Continue adding digits on as needed
-    int rem = prev / 1000;
-    while (rem > 0)
-    {
-      // Add leading zeros when necessary
-      if (prev % 1000 < 100)
-        ret = "0" + ret;
-      if (prev % 1000 < 10)
-        ret = "0" + ret;
-
-      // Add next digits on
-      ret = rem % 1000 + "," + ret;
-
-      // Prepare for next cycle
-      prev = rem;
-      rem /= 1000;
-    }
-
-    // Add dollar sign on and return!
-    return "$" + ret;
+    if (Double.isNaN(value) || Double.isInfinite(value))
+      throw new IllegalArgumentException(value + " is not an amount of money!");
+    // Cents straight from the double, unless rounding error could tip a half cent either way
+    double cents = value * 100;
+    double rounded = Math.rint(cents);
+    if (Math.abs(value) < 1e11 && Math.abs(cents - rounded) < 0.45)
+      return MoneyFormat.USD.format((long) rounded);
+    return MoneyFormat.USD.format(BigDecimal.valueOf(value));
   }
 
   /**
@@ -60,6 +43,10 @@ public class Util
    * How many different ways can you <b><i>choose</i></b>
    * <b><i>k</b></i> objects out of <b><i>n</i></b> objects.
    * Also said as "n choose k"
+   * <p>
+   * Results that fit in a long are computed directly. Larger ones are built from their prime
+   * factorization (by Legendre's formula, no prime power in it exceeds n), multiplied together
+   * as a balanced product tree so that the big multiplications happen on similar sized numbers.
    *
    * @param n Quantity to choose from (like 52 cards)
    * @param k Quantity being chosen (like 5 card hand)
@@ -71,90 +58,234 @@ public class Util
     if (!(k <= n && k >= 0))
       return BigInteger.ZERO;
 
-    // Efficiency, prevent excess use of math.
-    // ~~~~ 0 1 2 3 4 5 6 7 8 9 ~~~~
-    // k=0: 1          // 0
-    // k=1: 1 1        // 0
-    // k=2: 1 2 1      // 1
-    // k=3: 1 3 3 1    // 1
-    // k=4: 1 4 6 4 1  // 2
-    // k=5: 1 5 0 0 5 1// 2
-    if (k < n / 2)
+    // Efficiency, prevent excess use of math: C(n, k) = C(n, n - k)
+    if (k > n - k)
       k = n - k;
 
-    // Actual math:
-    //   Initial value
-    BigInteger val = BigInteger.ONE;
-    //   Numerator loop
-    for (Long i = (long) n; i > (long) k; i--)
-      val = val.multiply(new BigInteger(i.toString()));
-    //   Denominator loop (prevent identical choose patterns)
-    for (Long i = (long) (n - k); i > 1L; i--)
-      val = val.divide(new BigInteger(i.toString()));
+    long small = chooseFitting(n, k);
+    if (small >= 0)
+      return BigInteger.valueOf(small);
 
-    // Return
-    if (!val.min(BigInteger.ZERO).equals(BigInteger.ZERO))
-      System.out.println("\nERROR: UNDERFLOW");
-    return val;
+    int chosen = k; // k itself was reassigned above, so the lambda can not capture it
+    return primePowerProduct(n, p ->
+    {
+      int e = factorialExponent(n, p) - factorialExponent(chosen, p) - factorialExponent(n - chosen, p);
+      long power = 1;
+      for (int i = 0; i < e; i++)
+        power *= p;
+      return power;
+    });
+  }
+
+  /**
+   * Multiplies together one power of each prime up to n, as a balanced product tree. The powers
+   * are first packed into longs as tightly as they fit, so the tree has few leaves.
+   *
+   * @param n       Largest prime to include
+   * @param powerOf Power of the prime p to include; it must fit in a long
+   * @return the product of powerOf(p) over every prime p at most n.
+   */
+  private static BigInteger primePowerProduct(int n, LongUnaryOperator powerOf)
+  {
+    long[] terms = new long[64];
+    int count = 0;
+    long packed = 1;
+    PrimitiveIterator.OfLong primes = Prime.primeIterator(2, n + 1L);
+    while (primes.hasNext())
+    {
+      long power = powerOf.applyAsLong(primes.nextLong());
+      if (Math.multiplyHigh(packed, power) != 0 || packed * power < 0)
+      {
+        if (count == terms.length)
+          terms = Arrays.copyOf(terms, count * 2);
+        terms[count++] = packed;
+        packed = 1;
+      }
+      packed *= power;
+    }
+    if (count == terms.length)
+      terms = Arrays.copyOf(terms, count + 1);
+    terms[count++] = packed;
+    return productTree(terms, 0, count);
+  }
+
+  /**
+   * Choose, for results that fit in a long.
+   *
+   * @param n Quantity to choose from
+   * @param k Quantity being chosen
+   * @return n choose k (0 if k is out of range).
+   * @throws ArithmeticException if the result does not fit in a long.
+   */
+  public static long chooseLong(int n, int k)
+  {
+    if (!(k <= n && k >= 0))
+      return 0;
+    long ret = chooseFitting(n, Math.min(k, n - k));
+    if (ret < 0)
+      throw new ArithmeticException(n + " choose " + k + " does not fit in a long!");
+    return ret;
+  }
+
+  // C(n, k) for 0 <= k <= n / 2, or -1 if it does not fit in a long
+  private static long chooseFitting(int n, int k)
+  {
+    // C(m, i) = C(m, i - 1) * m / i, dividing out the common factor first so nothing overflows early
+    long ret = 1;
+    for (int i = 1; i <= k; i++)
+    {
+      long m = n - k + i;
+      long g = gcd(ret, i);
+      long r = ret / g;
+      long f = m / (i / g);
+      if (Math.multiplyHigh(r, f) != 0 || r * f < 0)
+        return -1;
+      ret = r * f;
+    }
+    return ret;
+  }
+
+  /**
+   * chooseMod - n choose k, reduced mod a modulus, without ever computing the full value.
+   * Keeps the tables of the last modulus used, so repeated calls with one modulus only build them
+   * once; use {@link ModularBinomial} directly to hold tables for several moduli.
+   *
+   * @param n       Quantity to choose from
+   * @param k       Quantity being chosen
+   * @param modulus Modulus to reduce by
+   * @return n choose k mod modulus.
+   */
+  public static long chooseMod(int n, int k, long modulus)
+  {
+    ModularBinomial tables = lastModularBinomial;
+    if (tables == null || tables.getModulus() != modulus)
+      lastModularBinomial = tables = new ModularBinomial(modulus, Math.max(n, 0));
+    else if (tables.getMaxN() < n)
+      lastModularBinomial = tables = new ModularBinomial(modulus, (int) Math.min(Integer.MAX_VALUE - 1, Math.max(n, 2L * tables.getMaxN())));
+    return tables.choose(n, k);
+  }
+
+  /**
+   * factorialExponent - Legendre's formula: how many times the prime <b><i>p</i></b> divides <b><i>n</i></b>!
+   *
+   * @param n Number whose factorial is checked
+   * @param p Prime to count
+   * @return Exponent of p in n!
+   */
+  public static int factorialExponent(long n, long p)
+  {
+    int e = 0;
+    while (n >= p)
+    {
+      n /= p;
+      e += n;
+    }
+    return e;
+  }
+
+  // Product of terms[from..to), splitting in half so both sides of every multiply are similar in size
+  private static BigInteger productTree(long[] terms, int from, int to)
+  {
+    if (to - from == 1)
+      return BigInteger.valueOf(terms[from]);
+    if (to - from == 2)
+      return BigInteger.valueOf(terms[from]).multiply(BigInteger.valueOf(terms[from + 1]));
+    int mid = (from + to) >>> 1;
+    return productTree(terms, from, mid).multiply(productTree(terms, mid, to));
   }
 
   /**
    * chooseFactor - Efficiently tells if a choose value has a factor of a given value or not.
+   * Each prime power in the factor is checked with Legendre's formula, in O(log n) per prime.
    *
    * @param n      Quantity to choose from (like 52 cards)
    * @param k      Quantity being chosen (like 5 card hand)
    * @param factor Factor to test for
+   * @return if factor divides n choose k (false when k is out of range).
    */
   public static boolean chooseFactor(int n, int k, int factor)
   {
     // You cant choose more objects than are in the set, or less than 0 objects.
     if (!(k <= n && k >= 0))
       return false;
+    if (factor == 0)
+      return false;
 
-    // Change k when needed for efficiency (~3x)
-    if (k < n / 2)
-      k = n - k;
-
-    HashMap<Long, Integer> factorFactors = getPrimeFactorsAsMap(factor);
-    HashMap<Long, Integer> factorsFound = new HashMap<>();
-    for (Long fac : factorFactors.keySet())
-      factorsFound.put(fac, 0);
-
-    // When the number being multiplied
-    for (int i = n; i > k; i--)
-      for (Long j : factorFactors.keySet())
-        if (factorFactors.containsKey(j))
-          factorsFound.replace(j, factorsFound.get(j) + factorQuantity(i, j));
-    for (int i = (n - k); i > 1; i--)
-      for (Long j : factorFactors.keySet())
-        if (factorFactors.containsKey(j))
-          factorsFound.replace(j, factorsFound.get(j) - factorQuantity(i, j));
-
-    int numberOfFactors = 0;
-
-    for (Long fac : factorFactors.keySet())
+    long[] factorFactors = Prime.getPrimeFactors(Math.abs((long) factor));
+    for (int i = 0; i < factorFactors.length; )
     {
-      factorsFound.replace(fac, Math.max(factorsFound.get(fac), 0));
-      numberOfFactors = Math.min(factorsFound.get(fac) / factorFactors.get(fac), numberOfFactors);
+      long p = factorFactors[i];
+      int needed = 0;
+      for (; i < factorFactors.length && factorFactors[i] == p; i++)
+        needed++;
+      if (chooseFactorQuantity(n, k, p) < needed)
+        return false;
     }
-    return numberOfFactors > 0;
+    return true;
   }
 
+  /**
+   * chooseHasFactorPrime - Tells if a choose value has a factor of a given prime or not.
+   * By Kummer's theorem this is exactly when adding k and n - k in base <b><i>factor</i></b>
+   * carries, so only the base <b><i>factor</i></b> digits are compared: O(log n).
+   *
+   * @param n      Quantity to choose from (like 52 cards)
+   * @param k      Quantity being chosen (like 5 card hand)
+   * @param factor Prime to test for
+   * @return if factor divides n choose k (false when k is out of range).
+   */
   public static boolean chooseHasFactorPrime(int n, int k, int factor)
   {
     if (!(k <= n && k >= 0))
       return false;
+    if (factor < 2)
+      throw new IllegalArgumentException("The factor must be a prime!");
 
-    if (k < n / 2)
-      k = n - k;
+    // Lucas: p divides C(n, k) exactly when some digit of k is larger than that digit of n
+    while (k > 0)
+    {
+      if (k % factor > n % factor)
+        return true;
+      n /= factor;
+      k /= factor;
+    }
+    return false;
+  }
 
-    int facCount = 0;
-    for (int i = n; i > k; i--)
-      facCount += factorQuantity(i, factor);
-    for (int i = (n - k); i > 1; i--)
-      facCount -= factorQuantity(i, factor);
+  /**
+   * chooseFactorQuantity - How many times the prime <b><i>p</i></b> divides n choose k,
+   * by Legendre's formula (equivalently, Kummer's count of carries).
+   *
+   * @param n Quantity to choose from
+   * @param k Quantity being chosen
+   * @param p Prime to count
+   * @return Exponent of p in n choose k (0 when k is out of range).
+   */
+  public static int chooseFactorQuantity(long n, long k, long p)
+  {
+    if (!(k <= n && k >= 0))
+      return 0;
+    return factorialExponent(n, p) - factorialExponent(k, p) - factorialExponent(n - k, p);
+  }
 
-    return facCount > 0;
+  /**
+   * chooseFactorRow - Tells, for a whole row of Pascal's triangle, which entries have a factor of a
+   * given value. The row is built as a bitset by {@link PascalRows#divisibleRow(int, int, long[])}.
+   *
+   * @param n      Row of the triangle (quantity to choose from)
+   * @param factor Factor to test for
+   * @return an array where entry k is if factor divides n choose k.
+   */
+  public static boolean[] chooseFactorRow(int n, int factor)
+  {
+    if (n < 0)
+      throw new IllegalArgumentException("There is no row " + n + "!");
+    long[] bits = new long[PascalRows.words(n)];
+    PascalRows.divisibleRow(n, factor, bits);
+    boolean[] row = new boolean[n + 1];
+    for (int k = 0; k <= n; k++)
+      row[k] = (bits[k >>> 6] & (1L << k)) != 0;
+    return row;
   }
 
   /**
@@ -197,51 +328,151 @@ public class Util
    * @param b One of the two integers to find the common multiple of.
    * @return The multiple found.
    */
-  public static long lcm(int a, int b) //TODO: doesnt seem to work. See ProjectEuler, Problem 4. Gave 931170240 instead of 232792560 (4x actual)
+  public static long lcm(int a, int b)
   {
-    int n, min;
-    long returnValue = (long) a * (long) b;
+    return lcm((long) a, (long) b);
+  }
 
-    // If both of them are prime, then the least common multiple is their product.
-    if (isPrime(a) && isPrime(b))
-      return returnValue;
+  /**
+   * Calculates the least common multiple of two passed integers.
+   *
+   * @param a One of the two integers to find the common multiple of.
+   * @param b One of the two integers to find the common multiple of.
+   * @return The (non-negative) multiple found; 0 if either is 0.
+   * @throws ArithmeticException if the multiple does not fit in a long.
+   */
+  public static long lcm(long a, long b)
+  {
+    if (a == 0 || b == 0)
+      return 0;
+    long ret = Math.multiplyExact(a / gcd(a, b), b);
+    if (ret == Long.MIN_VALUE)
+      throw new ArithmeticException("The lcm is 2^63, which does not fit in a long!");
+    return Math.abs(ret);
+  }
 
-    // Find factors that they share
-    n = 2;
-    min = Math.min(a, b);
-    while (n <= min)
+  /**
+   * Calculates the greatest common divisor of two integers with the binary GCD algorithm (Stein's),
+   * which only shifts and subtracts.
+   *
+   * @param a One of the two integers
+   * @param b One of the two integers
+   * @return The (non-negative) divisor found; 0 if both are 0.
+   * @throws ArithmeticException if the divisor is 2^63, which does not fit in a long.
+   */
+  public static long gcd(long a, long b)
+  {
+    a = Math.abs(a);
+    b = Math.abs(b);
+    // Only Long.MIN_VALUE stays negative; its only factors are powers of 2
+    if (a < 0 || b < 0)
     {
-      if (isPrime(n) && hasFactor(a, n) && hasFactor(b, n))
-        returnValue /= n * Math.min(factorQuantity(a, n), factorQuantity(b, n));
-      n++;
+      long other = a < 0 ? b : a;
+      if (other <= 0)
+        throw new ArithmeticException("The gcd is 2^63, which does not fit in a long!");
+      return Long.lowestOneBit(other);
     }
-    return returnValue;
+    if (a == 0)
+      return b;
+    if (b == 0)
+      return a;
+
+    int shift = Long.numberOfTrailingZeros(a | b);
+    a >>= Long.numberOfTrailingZeros(a);
+    while (b != 0)
+    {
+      b >>= Long.numberOfTrailingZeros(b);
+      if (a > b)
+      {
+        long t = a;
+        a = b;
+        b = t;
+      }
+      b -= a;
+    }
+    return a << shift;
+  }
+
+  /**
+   * Calculates the greatest common divisor of any number of integers.
+   * Large arrays are reduced as a parallel tree on the common ForkJoinPool.
+   *
+   * @param values Integers to find the common divisor of.
+   * @return The divisor found; 0 for no values (or all 0).
+   */
+  public static long gcd(long... values)
+  {
+    if (values.length >= PARALLEL_REDUCTION_THRESHOLD)
+      return Arrays.stream(values).parallel().reduce(0, Util::gcd);
+    long ret = 0;
+    for (long v : values)
+      ret = gcd(ret, v);
+    return ret;
+  }
+
+  /**
+   * Calculates the least common multiple of any number of integers.
+   * Large arrays are reduced as a parallel tree on the common ForkJoinPool.
+   *
+   * @param values Integers to find the common multiple of.
+   * @return The multiple found; 1 for no values.
+   * @throws ArithmeticException if the multiple does not fit in a long.
+   */
+  public static long lcm(long... values)
+  {
+    if (values.length >= PARALLEL_REDUCTION_THRESHOLD)
+      return Arrays.stream(values).parallel().reduce(1, Util::lcm);
+    long ret = 1;
+    for (long v : values)
+      ret = lcm(ret, v);
+    return ret;
+  }
+
+  public static BigInteger gcd(BigInteger a, BigInteger b)
+  {
+    return a.gcd(b);
+  }
+
+  public static BigInteger lcm(BigInteger a, BigInteger b)
+  {
+    if (a.signum() == 0 || b.signum() == 0)
+      return BigInteger.ZERO;
+    return a.divide(a.gcd(b)).multiply(b).abs();
+  }
+
+  /**
+   * Calculates the least common multiple of every integer from 1 to n: the product of the
+   * largest power of each prime that is at most n.
+   *
+   * @param n Top of the range
+   * @return lcm(1, 2, ..., n); 1 for n below 2.
+   */
+  public static BigInteger lcmRange(int n)
+  {
+    return primePowerProduct(n, p ->
+    {
+      long power = p;
+      while (power <= n / p)
+        power *= p;
+      return power;
+    });
   }
 
   /**
    * findAndReplaceAll takes a string, finds all instances of another string in it,
-   * and replaces them with another string.
+   * and replaces them with another string. The string is scanned once, left to right,
+   * and replaced text is not searched again.
    *
    * @param orig       The original string to parse
    * @param find       The string to find in the original string
    * @param replace    The string to replace the one that is being searched for
    * @param ignoreCase If the case of the original string should be ignored in the search.
    * @return The string with the values replaced.
+   * @see FindReplace
    */
   public static String findAndReplaceAll(String orig, String find, String replace, boolean ignoreCase)
   {
-    String origToSearch = ignoreCase ? orig.toLowerCase() : orig;
-    String stringToFind = ignoreCase ? find.toLowerCase() : find;
-    int location = origToSearch.indexOf(stringToFind);
-    String newString = new String(orig);
-
-    while (location >= 0)
-    {
-      newString = newString.substring(0, location) + replace + newString.substring(location + find.length());
-      origToSearch = ignoreCase ? newString.toLowerCase() : newString;
-      location = origToSearch.indexOf(stringToFind);
-    }
-    return newString;
+    return new FindReplace(find, replace, ignoreCase).replaceAll(orig);
   }
 
   /**
@@ -249,7 +480,7 @@ public class Util
    */
   public static boolean isVowel(char letter)
   {
-    return (letter == 'a' || letter == 'e' || letter == 'i' || letter == 'o' || letter == 'u');
+    return CharClass.VOWEL.test(letter);
   }
 
   /**
@@ -257,8 +488,7 @@ public class Util
    */
   public static boolean startsWithVowel(String str)
   {
-    String fLetter = str.substring(0, 1).toLowerCase();
-    return (fLetter.equals("a") || fLetter.equals("e") || fLetter.equals("i") || fLetter.equals("o") || fLetter.equals("u"));
+    return !str.isEmpty() && CharClass.VOWEL.test(str.charAt(0));
   }
 
   /**
@@ -266,22 +496,15 @@ public class Util
    */
   public static boolean containsVowel(String str)
   {
-    boolean ret = false;
-    long len = str.length();
-    for (int i = 0; i < len && !ret; i++)
-    {
-      if (startsWithVowel(str.substring(i)))
-        ret = true;
-    }
-    return ret;
+    return CharClass.VOWEL.contains(str);
   }
 
   /**
-   * Returns if the character is a letter or not.
+   * Returns if the character is a letter (in english) or not.
    */
   public static boolean isAlpha(char letter)
   {
-    return ((letter >= 'a') && (letter >= 'z'));
+    return CharClass.ALPHA.test(letter);
   }
 
   /**
@@ -289,8 +512,7 @@ public class Util
    */
   public static boolean startsWithAlpha(String str)
   {
-    String fLetter = str.substring(0, 1).toLowerCase();
-    return (fLetter.compareTo("a") >= 0 && fLetter.compareTo("z") <= 0);
+    return !str.isEmpty() && CharClass.ALPHA.test(str.charAt(0));
   }
 
   /**
@@ -298,14 +520,7 @@ public class Util
    */
   public static boolean containsAlpha(String str)
   {
-    boolean ret = false;
-    long len = str.length();
-    for (int i = 0; i < len && !ret; i++)
-    {
-      if (startsWithAlpha(str.substring(i)))
-        ret = true;
-    }
-    return ret;
+    return CharClass.ALPHA.contains(str);
   }
 
   /**
@@ -313,7 +528,7 @@ public class Util
    */
   public static boolean isCons(char letter)
   {
-    return (isAlpha(letter) && !isVowel(letter));
+    return CharClass.CONSONANT.test(letter);
   }
 
   /**
@@ -321,30 +536,23 @@ public class Util
    */
   public static boolean startsWithCons(String str)
   {
-    return (startsWithAlpha(str) && !startsWithVowel(str));
+    return !str.isEmpty() && CharClass.CONSONANT.test(str.charAt(0));
   }
 
   /**
-   * Returns if the string contains a vowel or not.
+   * Returns if the string contains a consonant or not.
    */
   public static boolean containsCons(String str)
   {
-    boolean ret = false;
-    long len = str.length();
-    for (int i = 0; i < len && !ret; i++)
-    {
-      if (startsWithCons(str.substring(i)))
-        ret = true;
-    }
-    return ret;
+    return CharClass.CONSONANT.contains(str);
   }
 
+  /**
+   * @see PrimitiveArrays#toIntArray(char[])
+   */
   public static int[] charArrayToIntArray(char[] array)
   {
-    int[] newArray = new int[array.length];
-    for (int i = 0; i < array.length; i++)
-      newArray[i] = (int) array[i];
-    return newArray;
+    return PrimitiveArrays.toIntArray(array);
   }
 
   public static Integer[] charArrayToIntegerArray(char[] array)
@@ -355,22 +563,30 @@ public class Util
     return newArray;
   }
 
+  /**
+   * Concatenates arrays into a new array whose component type is the closest class every
+   * part's component type extends. For primitive arrays, see {@link PrimitiveArrays}.
+   */
   public static <T> T[] arrayConcat(T[] arr0, T[]... rest) {
-    Class commonSuperclass = arr0.getClass().getComponentType();
-    int totalLen = arr0.length;
+    Class<?> commonSuperclass = arr0.getClass().getComponentType();
+    long totalLen = arr0.length;
     for (T[] arr: rest) {
       totalLen += arr.length;
-      Class compClass = arr.getClass().getComponentType();
-      while (! commonSuperclass.isAssignableFrom(compClass)) {
+      // Only walk the hierarchy when the parts actually differ
+      Class<?> compClass = arr.getClass().getComponentType();
+      while (commonSuperclass != compClass && !commonSuperclass.isAssignableFrom(compClass)) {
         if (compClass.isAssignableFrom(commonSuperclass)) {
           commonSuperclass = compClass;
           break;
         }
         commonSuperclass = commonSuperclass.getSuperclass();
-        compClass = compClass.getSuperclass();
+        if (commonSuperclass == null)
+          commonSuperclass = Object.class;
       }
     }
-    T[] all = (T[]) Array.newInstance(commonSuperclass, totalLen);
+    if (totalLen > Integer.MAX_VALUE - 8)
+      throw new IllegalArgumentException(totalLen + " elements do not fit in one array!");
+    T[] all = (T[]) Array.newInstance(commonSuperclass, (int) totalLen);
     int copied = arr0.length;
     System.arraycopy(arr0, 0, all, 0, copied);
     for (T[] arr: rest) {
@@ -390,83 +606,46 @@ public class Util
   }
 
 
+  /**
+   * @return in as two lower case hex digits, or four if it is above 0xff.
+   */
   public static String toHex(char in)
   {
-    //int in = (char) byt;
-    //if (in<0)
-    //  in= (char)(in-Byte.MIN_VALUE+Byte.MAX_VALUE);
-    int firstval = in / 16;
-    int secondval = in % 16;
-    char first;
-    if (firstval <= 9)
-      first = (char) ('0' + firstval);
-    else
-      first = (char) ('a' + firstval - 10);
-    char second = (char) (in % 16 > 9 ? 'a' + (in % 16) - 10 : '0' + in % 16);
-    return "" + first + second;
-    //return (""+(char)(in / 16 > 9 ? 'a'+ (in / 16)-10 : '0'+ in / 16)) + (char)(in % 16 > 9 ? 'a'+ (in % 16)-10 : '0'+ in % 16);
+    char[] ret = new char[in > 0xFF ? 4 : 2];
+    for (int i = ret.length - 1; i >= 0; i--, in >>>= 4)
+      ret[i] = Character.forDigit(in & 0xF, 16);
+    return new String(ret);
   }
 
+  /**
+   * @return the chars as lower case hex, two digits each, or four digits each if any char is above 0xff.
+   * @see Hex
+   */
   public static String toHex(char[] bytes)
   {
-    String ret = "";
+    boolean wide = false;
     for (char b : bytes)
-    {
-      ret += toHex(b);
-    }
-    return ret;
+      wide |= b > 0xFF;
+    int digits = wide ? 4 : 2;
+    char[] ret = new char[digits * bytes.length];
+    for (int i = 0, pos = digits - 1; i < bytes.length; i++, pos += digits)
+      for (int d = 0, b = bytes[i]; d < digits; d++, b >>>= 4)
+        ret[pos - d] = Hex.DIGITS[b & 0xF];
+    return new String(ret);
   }
 
   /**
-   * Searches the specified list for the specified object using the binary
-   * search algorithm.  The list must be sorted into ascending order
-   * according to the {@linkplain Comparable natural ordering} of its
-   * elements (as by the {\@link #sort(List)} method) prior to making this
-   * call.  If it is not sorted, the results are undefined.  If the list
-   * contains multiple elements equal to the specified object, there is no
-   * guarantee which one will be found.
+   * Searches a sorted array for a key.
    *
-   * <p>This method runs in log(n) time for a "random access" list (which
-   * provides near-constant-time positional access).  If the specified list
-   * does not implement the {@link java.util.RandomAccess} interface and is large,
-   * this method will do an iterator-based binary search that performs
-   * O(n) link traversals and O(log n) element comparisons.
-   *
-   * @param  <T> the class of the objects in the list
-   * @param  list the list to be searched.
+   * @param  list the sorted array to be searched.
    * @param  key the key to be searched for.
-   * @return the index of the search key, if it is contained in the list;
-   *         otherwise, <tt>(-(<i>insertion point</i>) - 1)</tt>.  The
-   *         <i>insertion point</i> is defined as the point at which the
-   *         key would be inserted into the list: the index of the first
-   *         element greater than the key, or <tt>list.size()</tt> if all
-   *         elements in the list are less than the specified key.  Note
-   *         that this guarantees that the return value will be &gt;= 0 if
-   *         and only if the key is found.
-   * @throws ClassCastException if the list contains elements that are not
-   *         <i>mutually comparable</i> (for example, strings and
-   *         integers), or the search key is not mutually comparable
-   *         with the elements of the list.
-   */
-  private static <T> int binarySearchArrayLong(long[] list, Long key)
-  {
-    int low = 0;
-    int high = list.length - 1;
-
-    while (low <= high)
-    {
-      int mid = (low + high) >>> 1;
-      Long midVal = list[mid];
-      long cmp = midVal - key;
-
-      if (cmp < 0)
-        low = mid + 1;
-      else if (cmp > 0)
-        high = mid - 1;
-      else
-        return mid; // key found
-    }
-    return -(low + 1);  // key not found
+   * @return the index of the search key, if it is contained in the array;
+   *         otherwise, <tt>(-(<i>insertion point</i>) - 1)</tt>.
+   * @see Search
+   */
+  public static int binarySearchArrayLong(long[] list, long key)
+  {
+    return Search.binarySearch(list, key);
   }
 
   public static int[] iToArray(int... array)
@@ -486,55 +665,36 @@ public class Util
     return ret;
   }
 
+  /**
+   * @return the array as "{1, 2, 3}".
+   * @see ArrayFormat
+   */
   public static String aTS(int[] array)
   {
-    if (array.length==0)
-      return "{ }";
-    String ret = "{";
-    ret += array[0];//.toString();
-    for (int i=1; i<array.length; i++)
-      ret += ", "+array[i];
-    return ret + "}";
+    return ArrayFormat.FULL.toString(array);
   }
+
   public static String aTS(Object[] array)
   {
-    if (array.length==0)
-      return "{ }";
-    String ret = "{";
-    ret += array[0];//.toString();
-    for (int i=1; i<array.length; i++)
-      ret += ", "+array[i];
-    return ret + "}";
+    return ArrayFormat.FULL.toString(array);
   }
+
   public static String aaTS(int[][] array)
   {
-    if (array.length==0)
-      return "{ }";
-    String ret = "{";
-    ret += aTS(array[0]);//.toString();
-    for (int i=1; i<array.length; i++)
-      ret += ", "+aTS(array[i]);
-    return ret + "}";
+    return ArrayFormat.FULL.toString(array);
   }
+
+  /**
+   * @return the array as "{T, F, T}".
+   */
   public static String aTS(boolean[] array)
   {
-    if (array.length==0)
-      return "{ }";
-    String ret = "{";
-    ret += (array[0]?"T":"F");//.toString();
-    for (int i=1; i<array.length; i++)
-      ret += ", "+(array[i]?"T":"F");
-    return ret + "}";
+    return ArrayFormat.FULL.toString(array);
   }
+
   public static String aaTS(boolean[][] array)
   {
-    if (array.length==0)
-      return "{ }";
-    String ret = "{";
-    ret += aTS(array[0]);//.toString();
-    for (int i=1; i<array.length; i++)
-      ret += ", "+aTS(array[i]);
-    return ret + "}";
+    return ArrayFormat.FULL.toString(array);
   }
 
   public static void displayHyEc()
@@ -542,13 +702,20 @@ public class Util
     System.out.println("\u00A7b\u00A7m\u00A7l>\u00A7r\u00A7e*\u00A7b\u00A7m\u00A7l<\u00A7r \u00A77Hyper\u00A7fEclipse\u00A76Tekkit Server!\u00A7r \u00A7b\u00A7m\u00A7l>\u00A7r\u00A7e*\u00A7b\u00A7m\u00A7l<\u00A7r");
   }
 
+  /**
+   * @return the current time as a UTC ISO-8601 timestamp, as in "2024-03-09T17:04:05.123Z".
+   * @see Timestamps
+   */
   public static String getTime()
   {
-    return new SimpleDateFormat("YYYY-MM-dd").format(new Date()) + "T" + new SimpleDateFormat("HH:mm:ss.SSS").format(new Date()) + "Z";
+    return Timestamps.format(System.currentTimeMillis());
   }
 
+  /**
+   * @return the date as a UTC ISO-8601 timestamp, as in "2024-03-09T17:04:05.123Z".
+   */
   public static String getTime(Date date)
   {
-    return new SimpleDateFormat("YYYY-MM-dd").format(date) + "T" + new SimpleDateFormat("HH:mm:ss.SSS").format(date) + "Z";
+    return Timestamps.format(date.getTime());
   }
 }
\ No newline at end of file